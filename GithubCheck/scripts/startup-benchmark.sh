@@ -0,0 +1,37 @@
+#!/usr/bin/env bash
+# Compare time-to-first-request and time-to-first-event with and without the AppCDS archive
+# Build first with: mvn package -Pappcds
+# Every run replays the same recording, so every run emits events and no run waits on the network
+# Record once with: java -jar target/GithubCheck-1.0-SNAPSHOT.jar -r owner/repo -t <token> --record traffic.gz
+# Usage: scripts/startup-benchmark.sh owner/repo <recording> [runs] [seconds per run]
+set -euo pipefail
+
+REPO="$1"
+RECORDING="$(cd "$(dirname "$2")" && pwd)/$(basename "$2")"
+RUNS="${3:-5}"
+WAIT="${4:-20}"
+
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+JAR="$ROOT/target/GithubCheck-1.0-SNAPSHOT.jar"
+JSA="$ROOT/target/GithubCheck-1.0-SNAPSHOT.jsa"
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+run() {
+    local label="$1"
+    shift
+    for i in $(seq "$RUNS"); do
+        # A replay starts from an empty in-memory state, so every run reports the recorded runs as new
+        (cd "$WORK" && timeout "$WAIT" "$JAVA" "$@" -jar "$JAR" -r "$REPO" --replay "$RECORDING" --replay-speed 0 \
+            --startup-timing || true) \
+            | { grep '^Startup:' || true; } | sed "s/^/$label run $i: /"
+    done
+}
+
+run "plain" -Xshare:auto
+if [ -f "$JSA" ]; then
+    run "appcds" -XX:SharedArchiveFile="$JSA"
+else
+    echo "No AppCDS archive found, build it with: mvn package -Pappcds"
+fi
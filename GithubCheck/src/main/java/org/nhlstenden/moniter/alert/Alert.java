@@ -0,0 +1,48 @@
+package org.nhlstenden.moniter.alert;
+
+import org.nhlstenden.moniter.event.MonitorEvent;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.time.Instant;
+
+/**
+ * A rule that fired, with the event that completed the count or started the wait
+ * @param key group-by values of a count rule, the run, job or step of a pending rule
+ */
+public record Alert(String rule, String key, String reason, MonitorEvent event, Instant firedAt) {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * One line of JSON
+     */
+    public String toJson() {
+        ObjectNode node = OBJECT_MAPPER.createObjectNode();
+        node.put("rule", rule);
+        node.put("key", key);
+        node.put("reason", reason);
+        node.put("firedAt", firedAt.toString());
+        node.put("type", event.getType().name());
+        node.put("repo", event.getRepo());
+        node.put("runId", event.getRun().getId());
+        node.put("workflow", event.getRun().getName());
+        node.put("branch", event.getRun().getHeadBranch());
+        node.put("sha", event.getRun().getHeadSha());
+        if (event.getJob() != null) {
+            node.put("jobId", event.getJob().getId());
+            node.put("job", event.getJob().getName());
+        }
+        if (event.getStep() != null) {
+            node.put("step", event.getStep().getName());
+        }
+        node.put("status", EventField.STATUS.of(event));
+        node.put("conclusion", EventField.CONCLUSION.of(event));
+        return OBJECT_MAPPER.writeValueAsString(node);
+    }
+
+    @Override
+    public String toString() {
+        return "ALERT " + rule + " [" + key + "]: " + reason + ", " + event.getType() + " run " + event.getRun().getId()
+                + (event.getJob() != null ? " job " + event.getJob().getId() : "") + " in " + event.getRepo();
+    }
+}
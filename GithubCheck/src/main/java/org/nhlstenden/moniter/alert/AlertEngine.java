@@ -0,0 +1,241 @@
+package org.nhlstenden.moniter.alert;
+
+import org.nhlstenden.moniter.event.EventListener;
+import org.nhlstenden.moniter.event.EventType;
+import org.nhlstenden.moniter.event.MonitorEvent;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates alert rules against every event
+ * Rules are indexed by event type and by their most selective exact field (step, job,
+ * workflow, branch, repo), so an event only tests the rules that can match it plus
+ * the rules with globs only. Alerts are handed to a delivery thread through a bounded
+ * queue, a slow sink drops alerts instead of holding back the pipeline
+ */
+public class AlertEngine implements EventListener {
+    private static final EventField[] INDEX_ORDER = {
+            EventField.STEP, EventField.JOB, EventField.WORKFLOW, EventField.BRANCH, EventField.REPO
+    };
+    //Level of the fields STEP and JOB in INDEX_ORDER
+    private static final int[] INDEX_LEVEL = {2, 1, 0, 0, 0};
+    private static final int STEP_LEVEL = 2;
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final List<AlertRule> rules;
+    private final Map<EventType, RuleIndex> index = new EnumMap<>(EventType.class);
+    private final Map<EventType, RuleIndex> untilIndex = new EnumMap<>(EventType.class);
+    private final List<AlertRule> pendingRules = new ArrayList<>();
+    private final AlertSink sink;
+    private final BlockingQueue<Alert> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ScheduledExecutorService timer;
+    private final Thread delivery;
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public AlertEngine(List<AlertRule> rules, AlertSink sink) {
+        this.rules = rules;
+        this.sink = sink;
+        for (AlertRule rule : rules) {
+            for (EventType type : rule.getTypes()) {
+                index.computeIfAbsent(type, t -> new RuleIndex()).add(rule, STEP_LEVEL);
+            }
+            //An until event shares run fields with the armed event, and job or step only at that level
+            for (EventType type : rule.getUntil()) {
+                untilIndex.computeIfAbsent(type, t -> new RuleIndex()).add(rule, rule.getLevel());
+            }
+            if (rule.isPending()) {
+                pendingRules.add(rule);
+            }
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "alert-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.delivery = new Thread(this::deliverLoop, "alert-delivery");
+        this.delivery.setDaemon(true);
+    }
+
+    public void start() {
+        delivery.start();
+        if (!pendingRules.isEmpty()) {
+            timer.scheduleWithFixedDelay(this::expirePending, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    public void stop() {
+        timer.shutdownNow();
+        delivery.interrupt();
+        try {
+            delivery.join(2_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+    }
+
+    @Override
+    public void onEvent(MonitorEvent event) {
+        RuleIndex waiting = untilIndex.get(event.getType());
+        if (waiting != null) {
+            //One key per level, shared by all rules waiting on this event type
+            String[] keys = new String[STEP_LEVEL + 1];
+            for (int i = 0; i < INDEX_ORDER.length; i++) {
+                resolve(waiting.lookup(i, event), event, keys);
+            }
+            resolve(waiting.scanned, event, keys);
+        }
+
+        RuleIndex candidates = index.get(event.getType());
+        if (candidates == null) {
+            return;
+        }
+        Instant now = null;
+        for (int i = 0; i < INDEX_ORDER.length; i++) {
+            now = evaluate(candidates.lookup(i, event), event, now);
+        }
+        evaluate(candidates.scanned, event, now);
+    }
+
+    private void resolve(List<AlertRule> waiting, MonitorEvent event, String[] keys) {
+        if (waiting == null) {
+            return;
+        }
+        for (AlertRule rule : waiting) {
+            int level = rule.getLevel();
+            if (keys[level] == null) {
+                keys[level] = AlertRule.entityKey(event, level);
+            }
+            rule.onUntil(keys[level]);
+        }
+    }
+
+    private Instant evaluate(List<AlertRule> candidates, MonitorEvent event, Instant now) {
+        if (candidates == null) {
+            return now;
+        }
+        for (AlertRule rule : candidates) {
+            if (!rule.matches(event)) {
+                continue;
+            }
+            if (now == null) {
+                now = Instant.now();
+            }
+            Alert alert = rule.onMatch(event, now);
+            if (alert != null) {
+                publish(alert);
+            }
+        }
+        return now;
+    }
+
+    private void expirePending() {
+        Instant now = Instant.now();
+        for (AlertRule rule : pendingRules) {
+            rule.expire(now, this::publish);
+        }
+    }
+
+    private void publish(Alert alert) {
+        fired.increment();
+        if (!queue.offer(alert)) {
+            dropped.increment();
+        }
+    }
+
+    private void deliverLoop() {
+        try {
+            while (true) {
+                deliver(queue.take());
+            }
+        } catch (InterruptedException e) {
+            //Stopping, deliver what already fired
+            Alert alert;
+            while ((alert = queue.poll()) != null) {
+                deliver(alert);
+            }
+        }
+    }
+
+    private void deliver(Alert alert) {
+        try {
+            sink.deliver(alert);
+        } catch (IOException e) {
+            System.err.println("Alert delivery failed: " + e.getMessage());
+        }
+    }
+
+    public int getRuleCount() {
+        return rules.size();
+    }
+
+    public long getFired() {
+        return fired.sum();
+    }
+
+    /**
+     * Alerts lost because the delivery queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Keys held by all rules together
+     */
+    public long getKeys() {
+        long keys = 0;
+        for (AlertRule rule : rules) {
+            keys += rule.getKeys();
+        }
+        return keys;
+    }
+
+    /**
+     * Rules of one event type, keyed by the first field of INDEX_ORDER they match exactly
+     * and that exists at the given level
+     */
+    private static final class RuleIndex {
+        private final List<Map<String, List<AlertRule>>> exact = new ArrayList<>(INDEX_ORDER.length);
+        private final List<AlertRule> scanned = new ArrayList<>();
+
+        private RuleIndex() {
+            for (int i = 0; i < INDEX_ORDER.length; i++) {
+                exact.add(new HashMap<>());
+            }
+        }
+
+        private void add(AlertRule rule, int level) {
+            for (int i = 0; i < INDEX_ORDER.length; i++) {
+                String value = rule.getExact().get(INDEX_ORDER[i]);
+                if (value != null && INDEX_LEVEL[i] <= level) {
+                    exact.get(i).computeIfAbsent(value, v -> new ArrayList<>()).add(rule);
+                    return;
+                }
+            }
+            scanned.add(rule);
+        }
+
+        private List<AlertRule> lookup(int field, MonitorEvent event) {
+            Map<String, List<AlertRule>> byValue = exact.get(field);
+            if (byValue.isEmpty()) {
+                return null;
+            }
+            String value = INDEX_ORDER[field].of(event);
+            return value == null ? null : byValue.get(value);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package org.nhlstenden.moniter.alert;
+
+import org.nhlstenden.moniter.event.EventType;
+import org.nhlstenden.moniter.event.MonitorEvent;
+import org.nhlstenden.moniter.stats.DetectionLagTracker;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One alert rule compiled from the rules file
+ * A count rule fires when its events reach the count within the window, per group-by key,
+ * and starts counting again from zero. A pending rule fires when none of its until events
+ * follow the event that armed it, for the same run, job or step, within the pending time.
+ * Both keep at most maxKeys keys, the least recently used key is dropped first
+ */
+public final class AlertRule {
+    private static final Set<String> PROPERTIES = Set.of("name", "type", "repo", "branch", "workflow", "job", "step",
+            "status", "conclusion", "sha", "count", "window", "by", "pending", "until", "maxKeys");
+    private static final Pattern DURATION = Pattern.compile("(\\d+)(ms|s|m|h|d)");
+    private static final int DEFAULT_MAX_KEYS = 1000;
+    //Fields that reject the most events are tested first
+    private static final EventField[] CHECK_ORDER = {
+            EventField.CONCLUSION, EventField.STATUS, EventField.STEP, EventField.JOB,
+            EventField.WORKFLOW, EventField.BRANCH, EventField.SHA, EventField.REPO
+    };
+
+    private final String name;
+    private final Set<EventType> types;
+    private final Map<EventField, String> exact = new EnumMap<>(EventField.class);
+    private final EventField[] exactFields;
+    private final String[] exactValues;
+    private final EventField[] globFields;
+    private final Pattern[] globs;
+    private final List<EventField> groupBy = new ArrayList<>();
+    private final int count;
+    private final String windowText;
+    private final long slotMillis;
+    private final String pendingText;
+    private final long pendingMillis;
+    private final Set<EventType> until;
+    private final int level;
+    private final Map<String, WindowCounter> counters;
+    private final Map<String, Pending> pending;
+
+    private AlertRule(JsonNode node) {
+        this.name = text(node, "name", null);
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Every rule needs a name");
+        }
+        for (String property : node.propertyNames()) {
+            if (!PROPERTIES.contains(property)) {
+                throw invalid("unknown property " + property);
+            }
+        }
+
+        this.types = eventTypes(node.get("type"), "type");
+        if (types.isEmpty()) {
+            throw invalid("type is required");
+        }
+
+        //Exact fields first, they reject most events before any glob runs
+        List<EventField> globFields = new ArrayList<>();
+        List<Pattern> globs = new ArrayList<>();
+        for (EventField field : CHECK_ORDER) {
+            String value = text(node, field.key(), null);
+            if (value == null) {
+                continue;
+            }
+            if (value.contains("*")) {
+                globFields.add(field);
+                globs.add(glob(value));
+            } else {
+                exact.put(field, value);
+            }
+        }
+        this.exactFields = new EventField[exact.size()];
+        this.exactValues = new String[exact.size()];
+        int i = 0;
+        for (EventField field : CHECK_ORDER) {
+            if (exact.containsKey(field)) {
+                exactFields[i] = field;
+                exactValues[i++] = exact.get(field);
+            }
+        }
+        this.globFields = globFields.toArray(new EventField[0]);
+        this.globs = globs.toArray(new Pattern[0]);
+
+        int maxKeys = node.has("maxKeys") ? integer(node, "maxKeys") : DEFAULT_MAX_KEYS;
+        if (maxKeys < 1) {
+            throw invalid("maxKeys must be at least 1");
+        }
+
+        if (node.has("pending")) {
+            if (node.has("count") || node.has("window") || node.has("by")) {
+                throw invalid("pending cannot be combined with count, window or by");
+            }
+            this.pendingText = text(node, "pending", null);
+            this.pendingMillis = duration(pendingText);
+            this.until = eventTypes(node.get("until"), "until");
+            if (until.isEmpty()) {
+                throw invalid("pending needs the until events that end the wait");
+            }
+            this.level = level(types);
+            if (level < 0) {
+                throw invalid("pending needs types of one level, run, job or step");
+            }
+            for (EventType type : until) {
+                //The until event has to carry the run, job or step the wait is for
+                if (level(EnumSet.of(type)) < level) {
+                    throw invalid("until event " + type + " does not identify the " + levelName() + " of " + types);
+                }
+            }
+            this.count = 0;
+            this.windowText = null;
+            this.slotMillis = 0;
+        } else {
+            if (node.has("until")) {
+                throw invalid("until needs pending");
+            }
+            this.count = node.has("count") ? integer(node, "count") : 1;
+            if (count < 1) {
+                throw invalid("count must be at least 1");
+            }
+            this.windowText = text(node, "window", "1h");
+            this.slotMillis = Math.max(1, duration(windowText) / WindowCounter.SLOTS);
+            JsonNode by = node.get("by");
+            if (by == null) {
+                groupBy.add(EventField.REPO);
+            } else {
+                for (JsonNode key : by.isArray() ? by : List.of(by)) {
+                    groupBy.add(field(key.asString()));
+                }
+            }
+            this.pendingText = null;
+            this.pendingMillis = 0;
+            this.until = EnumSet.noneOf(EventType.class);
+            this.level = -1;
+        }
+
+        this.counters = lru(maxKeys);
+        this.pending = lru(maxKeys);
+    }
+
+    /**
+     * Read a rules file: {"rules": [{"name": ..., "type": ...}, ...]}
+     */
+    public static List<AlertRule> load(Path file) throws IOException {
+        return parse(Files.readString(file));
+    }
+
+    public static List<AlertRule> parse(String json) {
+        JsonNode root;
+        try {
+            root = new ObjectMapper().readTree(json);
+        } catch (JacksonException e) {
+            throw new IllegalArgumentException("Rules file is not valid JSON: " + e.getOriginalMessage());
+        }
+        JsonNode rules = root.get("rules");
+        if (rules == null || !rules.isArray()) {
+            throw new IllegalArgumentException("Rules file needs a rules array");
+        }
+        List<AlertRule> compiled = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (JsonNode node : rules) {
+            AlertRule rule = new AlertRule(node);
+            if (!names.add(rule.name)) {
+                throw new IllegalArgumentException("Duplicate rule name " + rule.name);
+            }
+            compiled.add(rule);
+        }
+        return compiled;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Set<EventType> getTypes() {
+        return types;
+    }
+
+    /**
+     * Events that end the wait of a pending rule, empty for count rules
+     */
+    public Set<EventType> getUntil() {
+        return until;
+    }
+
+    public boolean isPending() {
+        return pendingText != null;
+    }
+
+    /**
+     * Fields the rule matches exactly, used to index the rule
+     */
+    Map<EventField, String> getExact() {
+        return exact;
+    }
+
+    boolean matches(MonitorEvent event) {
+        for (int i = 0; i < exactFields.length; i++) {
+            if (!exactValues[i].equals(exactFields[i].of(event))) {
+                return false;
+            }
+        }
+        for (int i = 0; i < globFields.length; i++) {
+            String value = globFields[i].of(event);
+            if (value == null || !globs[i].matcher(value).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Count or arm a matching event
+     * @return the alert when the count was reached, otherwise null
+     */
+    synchronized Alert onMatch(MonitorEvent event, Instant now) {
+        if (isPending()) {
+            long since = since(event);
+            pending.putIfAbsent(entityKey(event, level), new Pending(event, since + pendingMillis));
+            return null;
+        }
+
+        String key = groupKey(event);
+        WindowCounter counter = counters.computeIfAbsent(key, k -> new WindowCounter());
+        int total = counter.add(eventMillis(event) / slotMillis);
+        if (total < count) {
+            return null;
+        }
+        counter.clear();
+        return new Alert(name, key, total + (total == 1 ? " match" : " matches") + " within " + windowText, event, now);
+    }
+
+    /**
+     * End the wait an until event answers
+     * @param key entity key of the until event at the level of this rule
+     */
+    synchronized void onUntil(String key) {
+        if (!pending.isEmpty()) {
+            pending.remove(key);
+        }
+    }
+
+    /**
+     * Fire every wait that ran out
+     */
+    synchronized void expire(Instant now, Consumer<Alert> alerts) {
+        long nowMillis = now.toEpochMilli();
+        Iterator<Map.Entry<String, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Pending> entry = iterator.next();
+            if (entry.getValue().deadline <= nowMillis) {
+                iterator.remove();
+                alerts.accept(new Alert(name, entry.getKey(), "no " + until + " within " + pendingText
+                        + " of " + entry.getValue().event.getType(), entry.getValue().event, now));
+            }
+        }
+    }
+
+    /**
+     * Keys currently held by this rule
+     */
+    synchronized int getKeys() {
+        return counters.size() + pending.size();
+    }
+
+    private String groupKey(MonitorEvent event) {
+        if (groupBy.size() == 1) {
+            return String.valueOf(groupBy.get(0).of(event));
+        }
+        StringBuilder key = new StringBuilder();
+        for (EventField field : groupBy) {
+            if (!key.isEmpty()) {
+                key.append('|');
+            }
+            key.append(field.of(event));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Run, job or step of a pending rule's level
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Identifies the run (level 0), job (1) or step (2) of the event
+     */
+    static String entityKey(MonitorEvent event, int level) {
+        return switch (level) {
+            case 0 -> String.valueOf(event.getRun().getId());
+            case 1 -> String.valueOf(event.getJob().getId());
+            default -> event.getJob().getId() + "/" + event.getStep().getName();
+        };
+    }
+
+    /**
+     * GitHub time of the event, the detection time when GitHub did not say
+     */
+    private static long eventMillis(MonitorEvent event) {
+        ZonedDateTime changedAt = DetectionLagTracker.changedAt(event);
+        return changedAt != null ? changedAt.toInstant().toEpochMilli() : event.getDetectedAt().toEpochMilli();
+    }
+
+    /**
+     * Start of the wait, jobs wait from the moment they were queued
+     */
+    private long since(MonitorEvent event) {
+        if (level == 1 && event.getJob().getCreatedAt() != null) {
+            return event.getJob().getCreatedAt().toInstant().toEpochMilli();
+        }
+        return eventMillis(event);
+    }
+
+    private static int level(Set<EventType> types) {
+        int level = -1;
+        for (EventType type : types) {
+            int typeLevel = switch (type) {
+                case RUN_STARTED, RUN_UPDATED -> 0;
+                case JOB_STARTED, JOB_COMPLETED -> 1;
+                case STEP_STARTED, STEP_COMPLETED -> 2;
+            };
+            if (level >= 0 && typeLevel != level) {
+                return -1;
+            }
+            level = typeLevel;
+        }
+        return level;
+    }
+
+    private String levelName() {
+        return switch (level) {
+            case 0 -> "run";
+            case 1 -> "job";
+            default -> "step";
+        };
+    }
+
+    private static <V> Map<String, V> lru(int maxKeys) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxKeys;
+            }
+        };
+    }
+
+    private static Pattern glob(String value) {
+        StringBuilder regex = new StringBuilder();
+        for (String part : value.split("\\*", -1)) {
+            if (!regex.isEmpty()) {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(part));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private Set<EventType> eventTypes(JsonNode node, String property) {
+        Set<EventType> types = EnumSet.noneOf(EventType.class);
+        if (node == null) {
+            return types;
+        }
+        for (JsonNode type : node.isArray() ? node : List.of(node)) {
+            try {
+                types.add(EventType.valueOf(type.asString().trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw invalid("unknown event type in " + property + " " + type.asString());
+            }
+        }
+        return types;
+    }
+
+    private EventField field(String key) {
+        for (EventField field : EventField.values()) {
+            if (field.key().equals(key)) {
+                return field;
+            }
+        }
+        throw invalid("unknown field in by " + key);
+    }
+
+    private String text(JsonNode node, String property, String defaultValue) {
+        JsonNode value = node.get(property);
+        if (value == null || value.isNull()) {
+            return defaultValue;
+        }
+        if (!value.isString()) {
+            throw invalid(property + " must be a string");
+        }
+        return value.asString();
+    }
+
+    private int integer(JsonNode node, String property) {
+        JsonNode value = node.get(property);
+        if (!value.isIntegralNumber() || !value.canConvertToInt()) {
+            throw invalid(property + " must be a whole number");
+        }
+        return value.intValue();
+    }
+
+    /**
+     * 500ms, 90s, 10m, 1h or 7d
+     */
+    private long duration(String text) {
+        Matcher matcher = DURATION.matcher(text == null ? "" : text.trim());
+        if (!matcher.matches()) {
+            throw invalid("duration must look like 90s, 10m or 1h " + text);
+        }
+        long amount = Long.parseLong(matcher.group(1));
+        Duration duration = switch (matcher.group(2)) {
+            case "ms" -> Duration.ofMillis(amount);
+            case "s" -> Duration.ofSeconds(amount);
+            case "m" -> Duration.ofMinutes(amount);
+            case "h" -> Duration.ofHours(amount);
+            default -> Duration.ofDays(amount);
+        };
+        if (duration.isZero()) {
+            throw invalid("duration must be more than zero " + text);
+        }
+        return duration.toMillis();
+    }
+
+    private IllegalArgumentException invalid(String message) {
+        return new IllegalArgumentException("Rule " + name + ": " + message);
+    }
+
+    private record Pending(MonitorEvent event, long deadline) {
+    }
+}
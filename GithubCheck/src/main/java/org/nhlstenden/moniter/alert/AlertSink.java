@@ -0,0 +1,33 @@
+package org.nhlstenden.moniter.alert;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * Where fired alerts go, called from a single delivery thread
+ */
+@FunctionalInterface
+public interface AlertSink {
+    void deliver(Alert alert) throws IOException;
+
+    default void close() {
+    }
+
+    /**
+     * A file of JSON lines, tcp://host:port for JSON lines over a socket, or stdout when null
+     */
+    static AlertSink open(String target) throws IOException {
+        if (target == null) {
+            return System.out::println;
+        }
+        if (target.startsWith("tcp://")) {
+            URI uri = URI.create(target);
+            if (uri.getHost() == null || uri.getPort() < 0) {
+                throw new IllegalArgumentException("Alert output must be in tcp://host:port format " + target);
+            }
+            return new SocketAlertSink(uri.getHost(), uri.getPort());
+        }
+        return new FileAlertSink(Path.of(target));
+    }
+}
@@ -0,0 +1,45 @@
+package org.nhlstenden.moniter.alert;
+
+import org.nhlstenden.moniter.event.MonitorEvent;
+
+import java.util.Locale;
+
+/**
+ * Event attributes a rule can match on and group by
+ * Status and conclusion are those of the step, job or run the event reports
+ */
+public enum EventField {
+    REPO,
+    BRANCH,
+    WORKFLOW,
+    JOB,
+    STEP,
+    STATUS,
+    CONCLUSION,
+    SHA;
+
+    /**
+     * Value of this field in the event, null when the event does not have it
+     */
+    public String of(MonitorEvent event) {
+        return switch (this) {
+            case REPO -> event.getRepo();
+            case BRANCH -> event.getRun().getHeadBranch();
+            case WORKFLOW -> event.getRun().getName();
+            case JOB -> event.getJob() == null ? null : event.getJob().getName();
+            case STEP -> event.getStep() == null ? null : event.getStep().getName();
+            case STATUS -> event.getStep() != null ? event.getStep().getStatus()
+                    : event.getJob() != null ? event.getJob().getStatus() : event.getRun().getStatus();
+            case CONCLUSION -> event.getStep() != null ? event.getStep().getConclusion()
+                    : event.getJob() != null ? event.getJob().getConclusion() : event.getRun().getConclusion();
+            case SHA -> event.getRun().getHeadSha();
+        };
+    }
+
+    /**
+     * Name used in the rules file
+     */
+    public String key() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,36 @@
+package org.nhlstenden.moniter.alert;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends one JSON line per alert, flushed right away so tail -f sees it
+ */
+public class FileAlertSink implements AlertSink {
+    private final BufferedWriter writer;
+
+    public FileAlertSink(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void deliver(Alert alert) throws IOException {
+        writer.write(alert.toJson());
+        writer.newLine();
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.err.println("Closing alert file failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.nhlstenden.moniter.alert;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes one JSON line per alert to a TCP listener, e.g. nc -lk 9000
+ * Connects on the first alert and reconnects once when the connection broke
+ */
+public class SocketAlertSink implements AlertSink {
+    private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+
+    private final String host;
+    private final int port;
+    private Socket socket;
+    private OutputStream out;
+
+    public SocketAlertSink(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void deliver(Alert alert) throws IOException {
+        byte[] line = (alert.toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            write(line);
+        } catch (IOException e) {
+            //Listener restarted since the last alert
+            close();
+            write(line);
+        }
+    }
+
+    private void write(byte[] line) throws IOException {
+        if (socket == null) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+        out.write(line);
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //Already broken
+        }
+        socket = null;
+        out = null;
+    }
+}
@@ -0,0 +1,48 @@
+package org.nhlstenden.moniter.alert;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window count in a fixed ring of slots
+ * The window is split into SLOTS slots, a slot is cleared when the window moves past it,
+ * so memory stays the same however many events arrive. The count covers the window
+ * rounded up to whole slots. Events older than the window are ignored
+ */
+final class WindowCounter {
+    static final int SLOTS = 12;
+
+    private final int[] counts = new int[SLOTS];
+    private long head = Long.MIN_VALUE;
+    private int total;
+
+    /**
+     * Count an event in the given slot
+     * @param slot event time divided by the slot width
+     * @return events in the window ending at the newest slot
+     */
+    int add(long slot) {
+        if (head == Long.MIN_VALUE) {
+            head = slot;
+        }
+        if (slot > head) {
+            //Clear the slots the window moved past, at most the whole ring
+            long moved = Math.min(slot - head, SLOTS);
+            for (long i = 1; i <= moved; i++) {
+                int index = Math.floorMod(head + i, SLOTS);
+                total -= counts[index];
+                counts[index] = 0;
+            }
+            head = slot;
+        } else if (slot <= head - SLOTS) {
+            return total;
+        }
+        counts[Math.floorMod(slot, SLOTS)]++;
+        total++;
+        return total;
+    }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        total = 0;
+    }
+}
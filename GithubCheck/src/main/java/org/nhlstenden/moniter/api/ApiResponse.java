@@ -0,0 +1,49 @@
+package org.nhlstenden.moniter.api;
+
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Status, headers and body of a GitHub API response
+ */
+public class ApiResponse {
+    private final int statusCode;
+    private final Map<String, List<String>> headers;
+    private final String body;
+
+    public ApiResponse(int statusCode, Map<String, List<String>> headers, String body) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public static ApiResponse from(HttpResponse<String> response) {
+        return new ApiResponse(response.statusCode(), response.headers().map(), response.body());
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * First value of a header, header names are case insensitive
+     */
+    public Optional<String> firstHeader(String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+                return Optional.of(header.getValue().get(0));
+            }
+        }
+        return Optional.empty();
+    }
+}
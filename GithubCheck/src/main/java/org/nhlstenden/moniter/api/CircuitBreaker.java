@@ -0,0 +1,68 @@
+package org.nhlstenden.moniter.api;
+
+import java.time.Duration;
+
+/**
+ * Per host circuit breaker
+ * Closed: requests pass, consecutive failures are counted
+ * Open: requests fail at once until the open duration has passed
+ * Half open: a single trial request decides between closed and open
+ */
+class CircuitBreaker {
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String host;
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    CircuitBreaker(String host, int failureThreshold, Duration openDuration) {
+        this.host = host;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Call before every attempt, throws when the host is considered down
+     */
+    synchronized void acquire() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && trialInFlight)) {
+            throw new RuntimeException("Circuit open for " + host + ", failing fast");
+        }
+        if (state == State.HALF_OPEN) {
+            trialInFlight = true;
+        }
+    }
+
+    /**
+     * The attempt ended without an answer from the host, e.g. interrupted
+     */
+    synchronized void abandon() {
+        trialInFlight = false;
+    }
+
+    synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            if (state != State.OPEN) {
+                System.err.println("Circuit opened for " + host + " after " + failures + " failures");
+            }
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            trialInFlight = false;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.nhlstenden.moniter.api;
+
+/**
+ * Decides from the fingerprint of a raw run or job node whether it is decoded
+ */
+@FunctionalInterface
+public interface FingerprintFilter {
+    FingerprintFilter ALL = (id, fingerprint) -> true;
+
+    /**
+     * @return false to skip the entity without building its model
+     */
+    boolean changed(long id, long fingerprint);
+}
@@ -1,32 +1,109 @@
 package org.nhlstenden.moniter.api;
 
+import org.nhlstenden.moniter.jfr.HttpRequestEvent;
+import org.nhlstenden.moniter.jfr.JsonParseEvent;
 import org.nhlstenden.moniter.model.Job;
 import org.nhlstenden.moniter.model.Step;
 import org.nhlstenden.moniter.model.WorkflowRun;
+import org.nhlstenden.moniter.stats.StartupTimer;
 import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class GithubClient {
     private static final String BASE_URL = "https://api.github.com";
-    private final HttpClient httpClient;
-    private final ObjectMapper objectMapper;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
     private final String token;
+    private final RequestPolicy policy;
+    private final HttpTransport transport;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
 
     public GithubClient(String token) {
+        this(token, new RequestPolicy());
+    }
+
+    public GithubClient(String token, RequestPolicy policy) {
+        this(token, policy, networkTransport());
+    }
+
+    public GithubClient(String token, RequestPolicy policy, HttpTransport transport) {
         this.token = token;
-        this.httpClient = HttpClient.newHttpClient();
-        this.objectMapper = new ObjectMapper();
+        this.policy = policy;
+        this.transport = transport;
+    }
+
+    /**
+     * Transport that sends requests with the shared HttpClient
+     */
+    public static HttpTransport networkTransport() {
+        return request -> {
+            CompletableFuture<HttpResponse<String>> sent = httpClient().sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            CompletableFuture<ApiResponse> response = sent.thenApply(ApiResponse::from);
+            //Cancelled or timed out, abort the exchange as well
+            response.whenComplete((result, error) -> {
+                if (error != null) {
+                    sent.cancel(true);
+                }
+            });
+            return response;
+        };
+    }
+
+    /**
+     * HttpClient and ObjectMapper are only built on first use, the JVM
+     * guarantees the holder classes are initialized once
+     */
+    private static final class HttpClientHolder {
+        private static final HttpClient INSTANCE = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    private static final class ObjectMapperHolder {
+        private static final ObjectMapper INSTANCE = new ObjectMapper();
+    }
+
+    private static HttpClient httpClient() {
+        return HttpClientHolder.INSTANCE;
+    }
+
+    private static ObjectMapper objectMapper() {
+        return ObjectMapperHolder.INSTANCE;
+    }
+
+    /**
+     * Build the HttpClient and ObjectMapper on a background thread, so they
+     * are loaded while the caller is busy with something else
+     */
+    public static void warmUpAsync() {
+        Thread thread = new Thread(() -> {
+            httpClient();
+            objectMapper();
+        }, "github-client-warmup");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
@@ -37,38 +114,260 @@ public class GithubClient {
      * @param repo  GitHub repo name
      */
     public List<WorkflowRun> listWorkflowRuns(String owner, String repo) throws IOException, InterruptedException {
+        return listWorkflowRuns(owner, repo, FingerprintFilter.ALL);
+    }
+
+    /**
+     * Fetch the workflow runs for repo, only runs accepted by the filter are converted
+     */
+    public List<WorkflowRun> listWorkflowRuns(String owner, String repo, FingerprintFilter filter) throws IOException, InterruptedException {
         String url = BASE_URL + "/repos/" + owner + "/" + repo + "/actions/runs";
 
         System.out.println("Request URL: " + url);
         System.out.println("Using Authorization: token <hidden>");
 
+        return parseWorkflowRuns(get(url), filter);
+    }
+
+    /**
+     * GET an API URL and return the body, any status other than 200 is an error
+     * Network errors, timeouts, 5xx and rate limit responses are retried with
+     * jittered exponential backoff while the host's circuit breaker allows it
+     */
+    private String get(String url) throws IOException, InterruptedException {
+        URI uri = URI.create(url);
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
+                .uri(uri)
+                .timeout(policy.getRequestTimeout())
                 .header("Authorization", "token " + token)
                 .header("Accept", "application/vnd.github+json")
                 .GET()
                 .build();
+        CircuitBreaker breaker = breakerFor(uri);
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        StartupTimer.markFirstRequest();
+        for (int attempt = 1; ; attempt++) {
+            breaker.acquire();
 
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("Failed : HTTP error code : " + response.statusCode() + " - " + response.body());
+            ApiResponse response;
+            try {
+                response = sendHedged(request, attempt);
+            } catch (InterruptedException e) {
+                breaker.abandon();
+                throw e;
+            } catch (IOException e) {
+                breaker.recordFailure();
+                if (attempt >= policy.getMaxAttempts()) {
+                    throw e;
+                }
+                System.err.println("Request failed, retrying: " + url + " - " + e);
+                Thread.sleep(backoff(attempt).toMillis());
+                continue;
+            }
+
+            int status = response.getStatusCode();
+            if (status == 200) {
+                breaker.recordSuccess();
+                return response.getBody();
+            }
+
+            //Only server errors count as an outage, rate limits mean the host is up
+            if (status >= 500) {
+                breaker.recordFailure();
+            } else {
+                breaker.recordSuccess();
+            }
+
+            Optional<Duration> retryDelay = retryDelay(response, attempt);
+            if (retryDelay.isEmpty() || attempt >= policy.getMaxAttempts()) {
+                throw new RuntimeException("Failed : HTTP error code : " + status + " - " + response.getBody());
+            }
+            System.err.println("HTTP " + status + ", retrying in " + retryDelay.get().toMillis() + " ms: " + url);
+            Thread.sleep(retryDelay.get().toMillis());
         }
+    }
 
-        JsonNode root = this.objectMapper.readTree(response.body());
-        JsonNode runsNode = root.get("workflow_runs");
+    /**
+     * Send a request, and when hedging is on, a second copy once the first is slow
+     * The first successful response wins and the other request is cancelled
+     */
+    private ApiResponse sendHedged(HttpRequest request, int attempt) throws IOException, InterruptedException {
+        CompletableFuture<ApiResponse> primary = sendAsync(request, attempt);
+        Duration hedgeDelay = policy.getHedgeDelay();
+        if (hedgeDelay == null) {
+            return await(primary);
+        }
+
+        try {
+            return primary.get(hedgeDelay.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            //Slow, hedge below
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        }
+
+        CompletableFuture<ApiResponse> hedge = sendAsync(request, attempt);
+        CompletableFuture<ApiResponse> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (CompletableFuture<ApiResponse> copy : List.of(primary, hedge)) {
+            copy.whenComplete((response, error) -> {
+                if (error == null) {
+                    first.complete(response);
+                } else if (failed.incrementAndGet() == 2) {
+                    first.completeExceptionally(error);
+                }
+            });
+        }
+        try {
+            return await(first);
+        } finally {
+            primary.cancel(true);
+            hedge.cancel(true);
+        }
+    }
+
+    private CompletableFuture<ApiResponse> sendAsync(HttpRequest request, int attempt) {
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        CompletableFuture<ApiResponse> response = transport.send(request)
+                .orTimeout(policy.getRequestTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        response.whenComplete((result, error) -> {
+            if (event.shouldCommit()) {
+                event.url = request.uri().toString();
+                event.attempt = attempt;
+                event.statusCode = result != null ? result.getStatusCode() : -1;
+                event.payloadBytes = result != null ? utf8Length(result.getBody()) : 0;
+                event.error = error != null ? error.toString() : null;
+                event.commit();
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Encoded size of a body without encoding it
+     */
+    private static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                //A surrogate pair is 4 bytes
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        if (cause instanceof IOException ioException) {
+            return ioException;
+        }
+        if (cause instanceof TimeoutException) {
+            return new HttpTimeoutException("Request deadline exceeded");
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * How long to wait before retrying a response, empty when it must not be retried
+     */
+    private Optional<Duration> retryDelay(ApiResponse response, int attempt) {
+        int status = response.getStatusCode();
+        boolean serverError = status == 500 || status == 502 || status == 503 || status == 504;
+        Optional<String> retryAfter = response.firstHeader("Retry-After");
+        boolean rateLimited = status == 429
+                || (status == 403 && (retryAfter.isPresent()
+                || response.getBody().toLowerCase(Locale.ROOT).contains("secondary rate limit")));
 
-        if (runsNode == null || !runsNode.isArray()) {
-            return Collections.emptyList();
+        if (!serverError && !rateLimited) {
+            return Optional.empty();
         }
+        if (retryAfter.isPresent()) {
+            try {
+                Duration wait = Duration.ofSeconds(Long.parseLong(retryAfter.get().trim()));
+                return wait.compareTo(policy.getMaxRetryAfter()) <= 0 ? Optional.of(wait) : Optional.empty();
+            } catch (NumberFormatException e) {
+                //HTTP date form, fall back to backoff
+            }
+        }
+        return Optional.of(backoff(attempt));
+    }
+
+    /**
+     * Full jitter: a random delay between zero and the capped exponential backoff
+     */
+    private Duration backoff(int attempt) {
+        long cap = Math.min(policy.getMaxBackoff().toMillis(),
+                policy.getBaseBackoff().toMillis() << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap + 1));
+    }
+
+    private CircuitBreaker breakerFor(URI uri) {
+        return breakers.computeIfAbsent(uri.getHost(), host -> new CircuitBreaker(host,
+                policy.getBreakerFailureThreshold(), policy.getBreakerOpenDuration()));
+    }
+
+    /**
+     * Convert a workflow runs response body in to workflow models
+     */
+    public List<WorkflowRun> parseWorkflowRuns(String body) {
+        return parseWorkflowRuns(body, FingerprintFilter.ALL);
+    }
+
+    /**
+     * Convert the runs the filter accepts in to workflow models, the others are skipped
+     * before any model is built
+     */
+    public List<WorkflowRun> parseWorkflowRuns(String body, FingerprintFilter filter) {
+        JsonParseEvent event = new JsonParseEvent();
+        event.begin();
+        JsonNode root = objectMapper().readTree(body);
+        JsonNode runsNode = root.get("workflow_runs");
 
         List<WorkflowRun> workflowRuns = new ArrayList<>();
-        for (JsonNode runNode : runsNode) {
-            workflowRuns.add(parseWorkflowRun(runNode));
+        int skipped = 0;
+        if (runsNode != null && runsNode.isArray()) {
+            for (JsonNode runNode : runsNode) {
+                if (filter != FingerprintFilter.ALL
+                        && !filter.changed(runNode.get("id").asLong(), PayloadFingerprint.ofRun(runNode))) {
+                    skipped++;
+                    continue;
+                }
+                workflowRuns.add(parseWorkflowRun(runNode));
+            }
         }
+        commitParse(event, "workflow_runs", body, workflowRuns.size(), skipped);
         return workflowRuns;
     }
 
+    private static void commitParse(JsonParseEvent event, String kind, String body, int entities, int skipped) {
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.payloadBytes = utf8Length(body);
+            event.entities = entities;
+            event.skipped = skipped;
+            event.commit();
+        }
+    }
+
     /**
      * Parse a single workflow run JSON node into workflow model
      */
@@ -107,27 +406,48 @@ public class GithubClient {
      * Fetch all jobs and steps for a workflow
      */
     public List<Job> listJobs(String owner, String repo, long runId) throws IOException, InterruptedException {
+        return parseJobs(fetchJobs(owner, repo, runId));
+    }
+
+    /**
+     * Fetch the raw jobs response of a workflow run, parse it with parseJobs
+     */
+    public String fetchJobs(String owner, String repo, long runId) throws IOException, InterruptedException {
         String url = BASE_URL + "/repos/" + owner + "/" + repo +
                 "/actions/runs/" + runId + "/jobs";
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .header("Authorization", "token " + token)
-                .header("Accept", "application/vnd.github+json")
-                .GET()
-                .build();
-
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return get(url);
+    }
 
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("Failed : HTTP error code : " + response.statusCode() + " - " + response.body());
-        }
+    /**
+     * Convert a jobs response body in to job and step models
+     */
+    public List<Job> parseJobs(String body) {
+        return parseJobs(body, FingerprintFilter.ALL).jobs();
+    }
 
-        JsonNode root = objectMapper.readTree(response.body());
+    /**
+     * Convert the jobs the filter accepts in to job and step models, the others are
+     * skipped before any model is built
+     */
+    public ParsedJobs parseJobs(String body, FingerprintFilter filter) {
+        JsonParseEvent event = new JsonParseEvent();
+        event.begin();
+        ObjectMapper objectMapper = objectMapper();
+        JsonNode root = objectMapper.readTree(body);
         JsonNode jobsNode = root.get("jobs");
         List<Job> jobs = new ArrayList<>();
+        int total = 0;
+        boolean settled = true;
 
         for (JsonNode jobNode : jobsNode) {
+            total++;
+            settled &= jobNode.hasNonNull("conclusion");
+            if (filter != FingerprintFilter.ALL
+                    && !filter.changed(jobNode.get("id").asLong(), PayloadFingerprint.ofJob(jobNode))) {
+                continue;
+            }
+
             Job job = objectMapper.treeToValue(jobNode, Job.class);
 
             //Manually parse steps for finer control
@@ -143,7 +463,92 @@ public class GithubClient {
             jobs.add(job);
         }
 
-        return jobs;
+        commitParse(event, "jobs", body, jobs.size(), total - jobs.size());
+        return new ParsedJobs(jobs, total, total > 0 && settled);
+    }
+
+    /**
+     * Open the plain text log of a job as a stream, the caller must close the body
+     * GitHub answers with a redirect to a signed download URL, which is followed
+     * without the token so it is never sent to the storage host
+     */
+    public HttpResponse<InputStream> openJobLogs(String owner, String repo, long jobId) throws IOException, InterruptedException {
+        String url = BASE_URL + "/repos/" + owner + "/" + repo +
+                "/actions/jobs/" + jobId + "/logs";
+
+        URI uri = URI.create(url);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(policy.getRequestTimeout())
+                .header("Authorization", "token " + token)
+                .header("Accept", "application/vnd.github+json")
+                .GET()
+                .build();
+
+        CircuitBreaker breaker = breakerFor(uri);
+        breaker.acquire();
+        HttpResponse<InputStream> response;
+        try {
+            response = sendForStream(request);
+        } catch (InterruptedException e) {
+            breaker.abandon();
+            throw e;
+        } catch (IOException e) {
+            breaker.recordFailure();
+            throw e;
+        }
+        if (response.statusCode() >= 500) {
+            breaker.recordFailure();
+        } else {
+            breaker.recordSuccess();
+        }
+
+        if (response.statusCode() == 301 || response.statusCode() == 302 || response.statusCode() == 307) {
+            String location = response.headers().firstValue("Location")
+                    .orElseThrow(() -> new RuntimeException("Redirect without location for job logs " + jobId));
+            response.body().close();
+
+            HttpRequest download = HttpRequest.newBuilder()
+                    .uri(URI.create(location))
+                    .timeout(policy.getRequestTimeout())
+                    .GET()
+                    .build();
+            response = sendForStream(download);
+        }
+
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new RuntimeException("Failed : HTTP error code : " + response.statusCode() + " - logs of job " + jobId);
+        }
+        return response;
+    }
+
+    /**
+     * Send a request whose body is streamed, the event ends at the response headers
+     * and takes the payload size from Content-Length
+     */
+    private static HttpResponse<InputStream> sendForStream(HttpRequest request) throws IOException, InterruptedException {
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        HttpResponse<InputStream> response = null;
+        Exception failure = null;
+        try {
+            response = httpClient().send(request, HttpResponse.BodyHandlers.ofInputStream());
+            return response;
+        } catch (IOException | InterruptedException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (event.shouldCommit()) {
+                //Signed download URLs carry credentials in the query
+                event.url = request.uri().getScheme() + "://" + request.uri().getHost() + request.uri().getPath();
+                event.attempt = 1;
+                event.statusCode = response != null ? response.statusCode() : -1;
+                event.payloadBytes = response != null ? response.headers().firstValueAsLong("Content-Length").orElse(-1) : 0;
+                event.error = failure != null ? failure.toString() : null;
+                event.commit();
+            }
+        }
     }
 
 }
@@ -0,0 +1,13 @@
+package org.nhlstenden.moniter.api;
+
+import java.net.http.HttpRequest;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends the API GETs of GithubClient, lets recording and replay stand in for the network
+ * Cancelling the returned future should abort the request
+ */
+@FunctionalInterface
+public interface HttpTransport {
+    CompletableFuture<ApiResponse> send(HttpRequest request);
+}
@@ -0,0 +1,13 @@
+package org.nhlstenden.moniter.api;
+
+import org.nhlstenden.moniter.model.Job;
+
+import java.util.List;
+
+/**
+ * Jobs of a run that passed the fingerprint filter
+ * @param total   jobs in the response, decoded or not
+ * @param settled the run has jobs and every one of them has a conclusion
+ */
+public record ParsedJobs(List<Job> jobs, int total, boolean settled) {
+}
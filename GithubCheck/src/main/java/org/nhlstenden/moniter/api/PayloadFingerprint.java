@@ -0,0 +1,52 @@
+package org.nhlstenden.moniter.api;
+
+import tools.jackson.databind.JsonNode;
+
+/**
+ * 64-bit FNV-1a hash over the fields of a raw run or job that the monitor reacts to
+ * Equal fingerprints mean nothing the monitor reports has changed
+ */
+public final class PayloadFingerprint {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private static final String[] RUN_FIELDS = {"status", "conclusion", "updated_at"};
+    private static final String[] JOB_FIELDS = {"status", "conclusion", "started_at", "completed_at"};
+    private static final String[] STEP_FIELDS = {"name", "status", "conclusion", "started_at", "completed_at"};
+
+    private PayloadFingerprint() {
+    }
+
+    public static long ofRun(JsonNode run) {
+        return hash(OFFSET_BASIS, run, RUN_FIELDS);
+    }
+
+    /**
+     * Covers the job and all of its steps, a step can finish while the job stays in progress
+     */
+    public static long ofJob(JsonNode job) {
+        long hash = hash(OFFSET_BASIS, job, JOB_FIELDS);
+        JsonNode steps = job.get("steps");
+        if (steps != null && steps.isArray()) {
+            for (JsonNode step : steps) {
+                hash = hash(hash, step, STEP_FIELDS);
+            }
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, JsonNode node, String[] fields) {
+        for (String field : fields) {
+            JsonNode value = node.get(field);
+            if (value != null && !value.isNull()) {
+                String text = value.asString();
+                for (int i = 0; i < text.length(); i++) {
+                    hash = (hash ^ text.charAt(i)) * PRIME;
+                }
+            }
+            //Separator keeps "ab","c" apart from "a","bc" and null apart from ""
+            hash = (hash ^ (value == null || value.isNull() ? 0xFFFF : 0xFFFE)) * PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,183 @@
+package org.nhlstenden.moniter.archive;
+
+import org.nhlstenden.moniter.api.GithubClient;
+import org.nhlstenden.moniter.event.EventListener;
+import org.nhlstenden.moniter.event.EventType;
+import org.nhlstenden.moniter.event.MonitorEvent;
+import org.nhlstenden.moniter.storage.StateStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archive logs of completed jobs to disk
+ * Bodies are streamed through a fixed buffer into a gzip file, so a log is never
+ * held in heap. Files are named after the SHA-256 of the plain log, so jobs
+ * with identical output share one file
+ */
+public class LogArchiver implements EventListener {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_GLOB = "job-*.tmp";
+
+    private final GithubClient githubClient;
+    private final StateStore stateStore;
+    private final String owner;
+    private final String repo;
+    private final Path directory;
+    private final Semaphore downloads;
+    private final ExecutorService executor;
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    public LogArchiver(GithubClient githubClient, StateStore stateStore, String owner, String repo,
+                       Path directory, int maxConcurrentDownloads) throws IOException {
+        if (maxConcurrentDownloads < 1) {
+            throw new IllegalArgumentException("Concurrent log downloads must be at least 1 " + maxConcurrentDownloads);
+        }
+        this.githubClient = githubClient;
+        this.stateStore = stateStore;
+        this.owner = owner;
+        this.repo = repo;
+        this.directory = Files.createDirectories(directory);
+        deleteStaleDownloads();
+        this.downloads = new Semaphore(maxConcurrentDownloads);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @Override
+    public void onEvent(MonitorEvent event) {
+        if (event.getType() == EventType.JOB_COMPLETED) {
+            submit(event.getRun().getId(), event.getJob().getId());
+        }
+    }
+
+    /**
+     * Queue the log of a completed job, never blocks the caller
+     */
+    public void submit(long runId, long jobId) {
+        if (!pending.add(jobId)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                downloads.acquire();
+                try {
+                    archive(runId, jobId);
+                } finally {
+                    downloads.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Archiving logs of job " + jobId + " cancelled");
+            } catch (Exception e) {
+                //Interrupting a download surfaces as an IOException
+                if (executor.isShutdown()) {
+                    System.err.println("Archiving logs of job " + jobId + " cancelled");
+                } else {
+                    System.err.println("Archiving logs of job " + jobId + " failed: " + e.getMessage());
+                }
+            } finally {
+                pending.remove(jobId);
+            }
+        });
+    }
+
+    private void archive(long runId, long jobId) throws Exception {
+        if (stateStore.hasJobLog(jobId)) {
+            return;
+        }
+
+        Path temp = Files.createTempFile(directory, "job-" + jobId + "-", ".tmp");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long rawBytes = 0;
+
+            HttpResponse<InputStream> response = githubClient.openJobLogs(owner, repo, jobId);
+            try (ReadableByteChannel in = Channels.newChannel(response.body());
+                 FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 GZIPOutputStream out = new GZIPOutputStream(Channels.newOutputStream(file), BUFFER_SIZE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer.array(), 0, read);
+                    out.write(buffer.array(), 0, read);
+                    rawBytes += read;
+                    buffer.clear();
+                }
+            }
+
+            //A cancelled download can end early, never index what may be half a log
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Download of job " + jobId + " cancelled");
+            }
+
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            long storedBytes = Files.size(temp);
+
+            //Same content archived before, only index it
+            Optional<String> existing = stateStore.findLogBlob(sha256);
+            String path;
+            if (existing.isPresent()) {
+                path = existing.get();
+            } else {
+                Path target = directory.resolve(sha256.substring(0, 2)).resolve(sha256 + ".log.gz");
+                Files.createDirectories(target.getParent());
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                path = target.toString();
+            }
+
+            stateStore.saveJobLog(jobId, runId, sha256, path, rawBytes, storedBytes);
+            System.out.println("Archived logs of job " + jobId + " to " + path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Partial downloads of a process that was killed, they are never indexed
+     */
+    private void deleteStaleDownloads() throws IOException {
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, TEMP_GLOB)) {
+            for (Path temp : stale) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Stop accepting jobs and give running downloads a moment to finish, then cancel the rest
+     * A cancelled download deletes its temp file, the job stays without an archived log
+     */
+    public void stop() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                System.err.println("Cancelling " + pending.size() + " log downloads");
+                executor.shutdownNow();
+                executor.awaitTermination(2, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
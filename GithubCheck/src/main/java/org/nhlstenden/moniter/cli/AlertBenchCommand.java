@@ -0,0 +1,145 @@
+package org.nhlstenden.moniter.cli;
+
+import org.apache.commons.cli.CommandLine;
+import org.nhlstenden.moniter.alert.AlertEngine;
+import org.nhlstenden.moniter.alert.AlertRule;
+import org.nhlstenden.moniter.event.EventType;
+import org.nhlstenden.moniter.event.MonitorEvent;
+import org.nhlstenden.moniter.model.Job;
+import org.nhlstenden.moniter.model.Step;
+import org.nhlstenden.moniter.model.WorkflowRun;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Event throughput of the alert engine with thousands of active rules
+ * Generates count rules on step names, a share of glob rules that every event of their
+ * workflow is tested against, and pending rules on queued jobs. Events are synthetic
+ * and go straight to the engine, 100 ms of GitHub time apart
+ */
+public final class AlertBenchCommand {
+    private static final int WORKFLOWS = 50;
+    private static final int JOBS = 200;
+    private static final String[] BRANCHES = {"main", "develop", "feature/a", "feature/b"};
+    private static final int EVENT_POOL = 1 << 16;
+    private static final long EVENT_SPACING_NANOS = 100_000_000;
+
+    private AlertBenchCommand() {
+    }
+
+    public static void run(String[] args) {
+        CommandLine cmd = CliOptions.parseAlertBench(args);
+        int ruleCount = Integer.parseInt(cmd.getOptionValue("rules", "5000"));
+        int eventCount = Integer.parseInt(cmd.getOptionValue("events", "2000000"));
+        int rounds = Integer.parseInt(cmd.getOptionValue("rounds", "5"));
+
+        List<AlertRule> rules = AlertRule.parse(rules(ruleCount));
+        LongAdder delivered = new LongAdder();
+        AlertEngine engine = new AlertEngine(rules, alert -> delivered.increment());
+        engine.start();
+
+        Random random = new Random(42);
+        MonitorEvent[] events = new MonitorEvent[EVENT_POOL];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = event(random, ruleCount, i);
+        }
+
+        System.out.println("Alert benchmark: " + rules.size() + " rules, " + eventCount + " events per round");
+        ZonedDateTime clock = ZonedDateTime.now(ZoneOffset.UTC);
+        for (int round = 0; round <= rounds; round++) {
+            long firedBefore = engine.getFired();
+            long start = System.nanoTime();
+            for (int i = 0; i < eventCount; i++) {
+                MonitorEvent event = events[i & (EVENT_POOL - 1)];
+                clock = clock.plusNanos(EVENT_SPACING_NANOS);
+                stamp(event, clock);
+                engine.onEvent(event);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round == 0) {
+                System.out.println("Warmup round finished");
+                continue;
+            }
+            System.out.printf("Round %d: %.0f events/s, %.0f ns/event, %d alerts%n", round,
+                    eventCount / (elapsed / 1e9), (double) elapsed / eventCount, engine.getFired() - firedBefore);
+        }
+
+        engine.stop();
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.println("Keys held: " + engine.getKeys() + ", alerts fired: " + engine.getFired()
+                + ", delivered: " + delivered.sum() + ", dropped: " + engine.getDropped()
+                + ", heap used: " + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + " MB");
+    }
+
+    /**
+     * Every 20th rule matches a step glob within one workflow, every 100th waits for a queued job
+     */
+    private static String rules(int count) {
+        StringBuilder json = new StringBuilder("{\"rules\": [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            if (i % 100 == 0) {
+                json.append("{\"name\": \"queued-").append(i).append("\", \"type\": \"JOB_STARTED\", \"job\": \"job-")
+                        .append(i / 100 % JOBS).append("\", \"status\": \"queued\", \"pending\": \"10m\", \"until\": [\"STEP_STARTED\", \"JOB_COMPLETED\"]}");
+            } else if (i % 20 == 0) {
+                json.append("{\"name\": \"glob-").append(i).append("\", \"type\": \"STEP_COMPLETED\", \"workflow\": \"wf-")
+                        .append(i % WORKFLOWS).append("\", \"step\": \"step-").append(i)
+                        .append("*\", \"conclusion\": \"failure\", \"count\": 3, \"window\": \"1h\"}");
+            } else {
+                json.append("{\"name\": \"step-").append(i).append("\", \"type\": \"STEP_COMPLETED\", \"step\": \"step-")
+                        .append(i).append("\", \"conclusion\": \"failure\", \"count\": 3, \"window\": \"1h\", \"by\": [\"branch\"]}");
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    private static MonitorEvent event(Random random, int ruleCount, int index) {
+        WorkflowRun run = new WorkflowRun();
+        run.setId(index);
+        run.setName("wf-" + random.nextInt(WORKFLOWS));
+        run.setHeadBranch(BRANCHES[random.nextInt(BRANCHES.length)]);
+        run.setHeadSha(Integer.toHexString(random.nextInt()));
+        run.setStatus("in_progress");
+
+        Job job = new Job();
+        job.setId(index);
+        job.setName("job-" + random.nextInt(JOBS));
+
+        int kind = random.nextInt(10);
+        if (kind == 0) {
+            job.setStatus("queued");
+            return new MonitorEvent(EventType.JOB_STARTED, "owner/repo", run, job, null);
+        }
+        job.setStatus("in_progress");
+        Step step = new Step();
+        step.setName("step-" + random.nextInt(Math.max(1, ruleCount / 10)) + (random.nextInt(4) == 0 ? "-retry" : ""));
+        if (kind == 1) {
+            step.setStatus("in_progress");
+            return new MonitorEvent(EventType.STEP_STARTED, "owner/repo", run, job, step);
+        }
+        step.setStatus("completed");
+        step.setConclusion(random.nextInt(5) == 0 ? "failure" : "success");
+        return new MonitorEvent(EventType.STEP_COMPLETED, "owner/repo", run, job, step);
+    }
+
+    /**
+     * Move the GitHub time of the event, so windows slide as in a real stream
+     */
+    private static void stamp(MonitorEvent event, ZonedDateTime time) {
+        switch (event.getType()) {
+            case JOB_STARTED -> {
+                event.getJob().setCreatedAt(time);
+                event.getJob().setStartedAt(time);
+            }
+            case STEP_STARTED -> event.getStep().setStartedAt(time);
+            default -> event.getStep().setCompletedAt(time);
+        }
+    }
+}
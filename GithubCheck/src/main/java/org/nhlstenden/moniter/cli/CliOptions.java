@@ -1,6 +1,7 @@
 package org.nhlstenden.moniter.cli;
 
 import org.apache.commons.cli.*;
+import org.nhlstenden.moniter.scheduler.PollingService;
 
 public final class CliOptions {
     private CliOptions() {
@@ -24,8 +25,7 @@ public final class CliOptions {
                         .longOpt("token")
                         .hasArg()
                         .argName("token")
-                        .desc("Github Personal Access Token")
-                        .required()
+                        .desc("Github Personal Access Token, not needed with --replay")
                         .build()
         );
 
@@ -34,17 +34,357 @@ public final class CliOptions {
                         .longOpt("interval")
                         .hasArg()
                         .argName("seconds")
-                        .desc("Polling interval in seconds")
+                        .desc("Interval of the repo-wide workflow run listing in seconds, defaults to 30")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("hot-interval")
+                        .hasArg()
+                        .argName("seconds")
+                        .desc("Interval of the job polls of queued and in progress runs in seconds, defaults to 3."
+                                + " Grows with the number of hot runs so hot polls send at most "
+                                + PollingService.HOT_REQUESTS_PER_HOUR + " requests per hour,"
+                                + " at most one hot run per 2 seconds of --interval is tracked")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("request-timeout")
+                        .hasArg()
+                        .argName("seconds")
+                        .desc("Deadline of one GitHub request attempt, defaults to 15")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("max-attempts")
+                        .hasArg()
+                        .argName("count")
+                        .desc("Attempts per GitHub request for 5xx, rate limits and network errors, defaults to 4")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("hedge-after")
+                        .hasArg()
+                        .argName("millis")
+                        .desc("Send a second copy of a GET that has not answered after this delay")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("startup-timing")
+                        .desc("Print time from JVM start to the first request and the first event")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("archive-logs")
+                        .hasArg()
+                        .argName("dir")
+                        .desc("Download the logs of completed jobs into this directory")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("log-downloads")
+                        .hasArg()
+                        .argName("count")
+                        .desc("Maximum concurrent log downloads, defaults to 4")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("stage-workers")
+                        .hasArg()
+                        .argName("stage=count,...")
+                        .desc("Workers per pipeline stage (fetch, decode, diff, persist, emit)")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("queue-capacity")
+                        .hasArg()
+                        .argName("count")
+                        .desc("Queue capacity of every pipeline stage, defaults to 16")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("pipeline-stats")
+                        .desc("Print queue depth and throughput of every pipeline stage after each poll")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("lag-budget")
+                        .hasArg()
+                        .argName("seconds")
+                        .desc("Warn about events emitted later than this after GitHub changed the run, job or step")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("lag-stats")
+                        .desc("Print detection lag percentiles over the last 5 and 60 minutes every minute")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("sse-port")
+                        .hasArg()
+                        .argName("port")
+                        .desc("Stream events as Server-Sent Events on http://<bind address>:<port>/events")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("sse-bind")
+                        .hasArg()
+                        .argName("address")
+                        .desc("Address the event stream listens on, defaults to the loopback address."
+                                + " The stream has no authentication, 0.0.0.0 serves it to every host that can reach this one")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("sse-buffer")
+                        .hasArg()
+                        .argName("count")
+                        .desc("Events kept for slow and resuming subscribers, defaults to 1024")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("alert-rules")
+                        .hasArg()
+                        .argName("file")
+                        .desc("Evaluate the alert rules in this JSON file against every event")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("alert-output")
+                        .hasArg()
+                        .argName("file|tcp://host:port")
+                        .desc("Append fired alerts as JSON lines to a file or a TCP listener, defaults to stdout")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("jfr")
+                        .hasArg()
+                        .argName("file")
+                        .desc("Keep a Flight Recorder recording of the last hour, written to this file on exit")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("record")
+                        .hasArg()
+                        .argName("file")
+                        .desc("Record every GitHub API response with headers and timing into this file")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("replay")
+                        .hasArg()
+                        .argName("file")
+                        .desc("Answer GitHub API requests from a recording instead of the network")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("replay-speed")
+                        .hasArg()
+                        .argName("factor")
+                        .desc("Replay speed relative to the recording, 0 replays without waiting, defaults to 1")
+                        .build()
+        );
+
+        return parse("GitHub Checks", options, args);
+    }
+
+    /**
+     * Options of the report subcommand, args must not contain the subcommand itself
+     */
+    public static CommandLine parseReport(String[] args) {
+        Options options = new Options();
+
+        options.addOption(
+                Option.builder("d")
+                        .longOpt("db")
+                        .hasArg()
+                        .argName("file")
+                        .desc("State database file, defaults to state.db")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder("k")
+                        .longOpt("kind")
+                        .hasArg()
+                        .argName("job|step")
+                        .desc("Only report jobs or steps")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder("w")
+                        .longOpt("workflow")
+                        .hasArg()
+                        .argName("name")
+                        .desc("Only report this workflow")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder("j")
+                        .longOpt("job")
+                        .hasArg()
+                        .argName("name")
+                        .desc("Only report this job name")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder("s")
+                        .longOpt("step")
+                        .hasArg()
+                        .argName("name")
+                        .desc("Only report this step name")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder("b")
+                        .longOpt("branch")
+                        .hasArg()
+                        .argName("branch")
+                        .desc("Only report this branch")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("per-branch")
+                        .desc("Report every branch separately")
+                        .build()
+        );
+
+        return parse("GitHub Checks report", options, args);
+    }
+
+    /**
+     * Options of the export subcommand, args must not contain the subcommand itself
+     */
+    public static CommandLine parseExport(String[] args) {
+        Options options = new Options();
+
+        options.addOption(
+                Option.builder("d")
+                        .longOpt("db")
+                        .hasArg()
+                        .argName("file")
+                        .desc("State database file, defaults to state.db")
                         .build()
         );
 
+        options.addOption(
+                Option.builder("o")
+                        .longOpt("out")
+                        .hasArg()
+                        .argName("dir")
+                        .desc("Directory for the Arrow files, defaults to export")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("row-group")
+                        .hasArg()
+                        .argName("rows")
+                        .desc("Rows per record batch, defaults to 65536")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("full")
+                        .desc("Export every row instead of the rows changed since the last export")
+                        .build()
+        );
+
+        return parse("GitHub Checks export", options, args);
+    }
+
+    /**
+     * Options of the alert-bench subcommand, args must not contain the subcommand itself
+     */
+    public static CommandLine parseAlertBench(String[] args) {
+        Options options = new Options();
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("rules")
+                        .hasArg()
+                        .argName("count")
+                        .desc("Active alert rules, defaults to 5000")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("events")
+                        .hasArg()
+                        .argName("count")
+                        .desc("Events per measured round, defaults to 2000000")
+                        .build()
+        );
+
+        options.addOption(
+                Option.builder()
+                        .longOpt("rounds")
+                        .hasArg()
+                        .argName("count")
+                        .desc("Measured rounds after one warmup round, defaults to 5")
+                        .build()
+        );
+
+        return parse("GitHub Checks alert-bench", options, args);
+    }
+
+    private static CommandLine parse(String usage, Options options, String[] args) {
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
 
         try {
             return parser.parse(options, args);
         } catch (ParseException e) {
-            formatter.printHelp("GitHub Checks", options);
+            formatter.printHelp(usage, options);
             System.exit(1);
             return null;
         }
@@ -0,0 +1,49 @@
+package org.nhlstenden.moniter.cli;
+
+import org.apache.commons.cli.CommandLine;
+import org.nhlstenden.moniter.export.ArrowExporter;
+import org.nhlstenden.moniter.storage.StateStore;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Export workflow runs, jobs and steps to Arrow IPC files for analytics
+ * Each table is exported from its watermark up to the latest change, the
+ * watermark only moves once the file is complete
+ */
+public final class ExportCommand {
+    private static final List<String> TABLES = List.of("workflow_runs", "jobs", "steps");
+
+    private ExportCommand() {
+    }
+
+    public static void run(String[] args) throws Exception {
+        CommandLine cmd = CliOptions.parseExport(args);
+
+        StateStore stateStore = new StateStore(cmd.getOptionValue("db", "state.db"));
+        stateStore.init();
+        Path directory = Path.of(cmd.getOptionValue("out", "export"));
+        int rowGroupRows = Integer.parseInt(cmd.getOptionValue("row-group", "65536"));
+
+        //Rows changed while exporting get a higher change_seq and go into the next export
+        long upToSeq = stateStore.getChangeSeq();
+        try (ArrowExporter exporter = new ArrowExporter(stateStore, directory, rowGroupRows)) {
+            for (String table : TABLES) {
+                long afterSeq = cmd.hasOption("full") ? -1 : stateStore.getExportWatermark(table);
+                if (afterSeq >= upToSeq) {
+                    System.out.println(table + ": no changes since the last export");
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                long rows = exporter.export(table, afterSeq, upToSeq);
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                stateStore.updateExportWatermark(table, upToSeq);
+                System.out.println(table + ": exported " + rows + " rows up to change " + upToSeq
+                        + " in " + elapsedMillis + " ms");
+            }
+        }
+        System.out.println("Export written to " + directory.toAbsolutePath());
+    }
+}
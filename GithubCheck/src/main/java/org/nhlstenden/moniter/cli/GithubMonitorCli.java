@@ -1,17 +1,55 @@
 package org.nhlstenden.moniter.cli;
 
 import org.apache.commons.cli.CommandLine;
+import org.nhlstenden.moniter.alert.AlertEngine;
+import org.nhlstenden.moniter.alert.AlertRule;
+import org.nhlstenden.moniter.alert.AlertSink;
 import org.nhlstenden.moniter.api.GithubClient;
+import org.nhlstenden.moniter.api.HttpTransport;
+import org.nhlstenden.moniter.api.RequestPolicy;
+import org.nhlstenden.moniter.archive.LogArchiver;
+import org.nhlstenden.moniter.jfr.MonitorRecording;
+import org.nhlstenden.moniter.replay.RecordingTransport;
+import org.nhlstenden.moniter.replay.ReplayTransport;
+import org.nhlstenden.moniter.scheduler.PollPipeline;
 import org.nhlstenden.moniter.scheduler.PollingService;
+import org.nhlstenden.moniter.server.SseServer;
+import org.nhlstenden.moniter.stats.StartupTimer;
 import org.nhlstenden.moniter.storage.StateStore;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
 
 public class GithubMonitorCli {
     public static void main(String[] args) throws Exception {
 
+        //Subcommands
+        if (args.length > 0 && args[0].equals("report")) {
+            ReportCommand.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("export")) {
+            ExportCommand.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("alert-bench")) {
+            AlertBenchCommand.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("warmup")) {
+            WarmupCommand.run();
+            return;
+        }
+
         //Parse command-line argument
         CommandLine cmd = CliOptions.parse(args);
 
@@ -22,10 +60,22 @@ public class GithubMonitorCli {
             System.exit(1);
         }
 
-        //Read token and polling interval
+        if (cmd.hasOption("record") && cmd.hasOption("replay")) {
+            System.err.println("--record and --replay cannot be combined");
+            System.exit(1);
+        }
+
+        //Read token and polling interval, a replay never talks to GitHub
         String token = cmd.getOptionValue("token");
+        if (token == null && !cmd.hasOption("replay")) {
+            System.err.println("Missing required option: t");
+            System.exit(1);
+        }
         long interval = Long.parseLong(
-                cmd.getOptionValue("interval", "10")
+                cmd.getOptionValue("interval", "30")
+        );
+        long hotInterval = Long.parseLong(
+                cmd.getOptionValue("hot-interval", "3")
         );
 
         //Split owner and repo name
@@ -33,12 +83,44 @@ public class GithubMonitorCli {
         String owner = parts[0];
         String repoName = parts[1];
 
-        //Initialize client
-        GithubClient githubClient = new GithubClient(token);
+        if (cmd.hasOption("startup-timing")) {
+            StartupTimer.enable();
+        }
+        if (cmd.hasOption("jfr")) {
+            MonitorRecording.start(Path.of(cmd.getOptionValue("jfr")));
+            System.out.println("Flight Recorder dumps to " + cmd.getOptionValue("jfr") + " on exit");
+        }
+
+        //Initialize client, HttpClient and Jackson load in the background while the state store opens
+        RequestPolicy requestPolicy = new RequestPolicy();
+        requestPolicy.setRequestTimeout(Duration.ofSeconds(Long.parseLong(cmd.getOptionValue("request-timeout", "15"))));
+        requestPolicy.setMaxAttempts(Integer.parseInt(cmd.getOptionValue("max-attempts", "4")));
+        if (cmd.hasOption("hedge-after")) {
+            requestPolicy.setHedgeDelay(Duration.ofMillis(Long.parseLong(cmd.getOptionValue("hedge-after"))));
+        }
+        HttpTransport transport = GithubClient.networkTransport();
+        RecordingTransport recording = null;
+        ReplayTransport replay = null;
+        if (cmd.hasOption("record")) {
+            recording = new RecordingTransport(transport, Path.of(cmd.getOptionValue("record")));
+            transport = recording;
+        } else if (cmd.hasOption("replay")) {
+            replay = new ReplayTransport(Path.of(cmd.getOptionValue("replay")),
+                    Double.parseDouble(cmd.getOptionValue("replay-speed", "1")));
+            transport = replay;
+            //Every recorded response is consumed exactly once
+            requestPolicy.setHedgeDelay(null);
+            System.out.println("Replaying " + replay.getRemaining() + " responses from " + cmd.getOptionValue("replay"));
+        }
+        GithubClient githubClient = new GithubClient(token, requestPolicy, transport);
+        GithubClient.warmUpAsync();
 
-        //Initialize state store
-        StateStore stateStore = new StateStore("state.db");
+        //Initialize state store, a replay starts from an empty store and keeps every recorded run
+        StateStore stateStore = new StateStore(replay == null ? "state.db" : ":memory:");
         stateStore.init();
+        if (replay != null) {
+            stateStore.updateLastCheckpoint(ZonedDateTime.of(1970, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC));
+        }
 
         //Determine whether this is the first start up
         ZonedDateTime startupTime = ZonedDateTime.now();
@@ -57,19 +139,149 @@ public class GithubMonitorCli {
 
         //Start polling service
         PollingService pollingService = new PollingService(githubClient, stateStore, owner, repoName, isFirstStart, startupTime);
-        pollingService.start(interval);
+        LogArchiver logArchiver = null;
+        if (cmd.hasOption("archive-logs") && replay != null) {
+            System.err.println("Logs are not recorded, --archive-logs is ignored during a replay");
+        } else if (cmd.hasOption("archive-logs")) {
+            int downloads = positiveOption(cmd, "log-downloads", "4");
+            logArchiver = new LogArchiver(githubClient, stateStore, owner, repoName,
+                    Path.of(cmd.getOptionValue("archive-logs")), downloads);
+            pollingService.addEventListener(logArchiver);
+        }
+
+        SseServer sseServer = null;
+        if (cmd.hasOption("sse-port")) {
+            int port = parsePositive(cmd.getOptionValue("sse-port"));
+            if (port < 1 || port > 65535) {
+                System.err.println("--sse-port must be a port between 1 and 65535 " + cmd.getOptionValue("sse-port"));
+                System.exit(1);
+            }
+            sseServer = new SseServer(bindAddress(cmd.getOptionValue("sse-bind")), port,
+                    positiveOption(cmd, "sse-buffer", "1024"));
+            pollingService.addEventListener(sseServer);
+            sseServer.start();
+        }
+
+        AlertEngine alertEngine = null;
+        if (cmd.hasOption("alert-rules")) {
+            try {
+                List<AlertRule> rules = AlertRule.load(Path.of(cmd.getOptionValue("alert-rules")));
+                alertEngine = new AlertEngine(rules, AlertSink.open(cmd.getOptionValue("alert-output")));
+            } catch (IllegalArgumentException | IOException e) {
+                System.err.println("Loading alert rules failed: " + e.getMessage());
+                System.exit(1);
+            }
+            pollingService.addEventListener(alertEngine);
+            alertEngine.start();
+            System.out.println("Loaded " + alertEngine.getRuleCount() + " alert rules from " + cmd.getOptionValue("alert-rules"));
+        }
+
+        //Size the pipeline stages, e.g. fetch=8,decode=2
+        if (cmd.hasOption("stage-workers")) {
+            for (String entry : cmd.getOptionValue("stage-workers").split(",")) {
+                String[] stage = entry.split("=");
+                if (stage.length != 2 || parsePositive(stage[1]) < 1) {
+                    System.err.println("Stage workers must be in stage=count format with a count of at least 1 " + entry);
+                    System.exit(1);
+                }
+                if (!PollPipeline.STAGE_NAMES.contains(stage[0].trim())) {
+                    System.err.println("Unknown pipeline stage " + stage[0].trim() + ", expected one of " + PollPipeline.STAGE_NAMES);
+                    System.exit(1);
+                }
+                pollingService.setStageWorkers(stage[0].trim(), parsePositive(stage[1]));
+            }
+        }
+        pollingService.setQueueCapacity(positiveOption(cmd, "queue-capacity", "16"));
+        pollingService.setPrintPipelineStats(cmd.hasOption("pipeline-stats"));
+        if (cmd.hasOption("lag-budget")) {
+            pollingService.setLagBudget(Duration.ofSeconds(Long.parseLong(cmd.getOptionValue("lag-budget"))));
+        }
+        pollingService.setPrintLagStats(cmd.hasOption("lag-stats"));
+        if (replay != null) {
+            //Poll at the pace the responses are released
+            pollingService.setTimeScale(Double.parseDouble(cmd.getOptionValue("replay-speed", "1")));
+        }
+        pollingService.start(interval, hotInterval);
 
         System.out.println("Monitoring GitHub Actions for " + repo);
         System.out.println("Press Ctrl+C to stop.");
 
+        LogArchiver archiver = logArchiver;
+        SseServer server = sseServer;
+        AlertEngine alerts = alertEngine;
+        RecordingTransport recorder = recording;
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down GitHub Actions for " + repo);
             pollingService.stop();
+            if (archiver != null) {
+                archiver.stop();
+            }
+            if (server != null) {
+                server.stop();
+            }
+            if (alerts != null) {
+                alerts.stop();
+            }
+            if (recorder != null) {
+                recorder.close();
+                System.out.println("Recorded " + recorder.getRecorded() + " responses");
+            }
         }));
 
         try {
+            if (replay != null) {
+                //Stop once the recording is used up or over and the last responses went through the pipeline
+                while (!replay.isFinished()) {
+                    Thread.sleep(200);
+                }
+                pollingService.stopPolling();
+                Thread.sleep(1000);
+                System.out.println("Replay finished, " + replay.getRemaining() + " recorded responses unused, "
+                        + replay.getUnmatched() + " requests without a recorded response");
+                System.exit(0);
+            }
             Thread.currentThread().join();
         } catch (InterruptedException e) {
         }
     }
+
+    /**
+     * Whole number option of at least 1, exits with a usage error otherwise
+     */
+    private static int positiveOption(CommandLine cmd, String option, String defaultValue) {
+        String value = cmd.getOptionValue(option, defaultValue);
+        int parsed = parsePositive(value);
+        if (parsed < 1) {
+            System.err.println("--" + option + " must be a whole number of at least 1 " + value);
+            System.exit(1);
+        }
+        return parsed;
+    }
+
+    /**
+     * Loopback unless an address is given, the event stream has no authentication
+     */
+    private static InetAddress bindAddress(String value) {
+        if (value == null) {
+            return InetAddress.getLoopbackAddress();
+        }
+        try {
+            return InetAddress.getByName(value);
+        } catch (UnknownHostException e) {
+            System.err.println("--sse-bind is not a known address " + value);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * @return the number, or 0 when it is not a whole number of at least 1
+     */
+    private static int parsePositive(String value) {
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package org.nhlstenden.moniter.cli;
+
+import org.apache.commons.cli.CommandLine;
+import org.nhlstenden.moniter.model.DurationRollup;
+import org.nhlstenden.moniter.storage.StateStore;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Print p50/p95 durations and failure rates from the rollup tables
+ */
+public final class ReportCommand {
+    private ReportCommand() {
+    }
+
+    public static void run(String[] args) throws Exception {
+        CommandLine cmd = CliOptions.parseReport(args);
+
+        String kind = cmd.getOptionValue("kind");
+        if (kind != null) {
+            kind = kind.toUpperCase(Locale.ROOT);
+            if (!kind.equals("JOB") && !kind.equals("STEP")) {
+                System.err.println("Kind must be job or step " + cmd.getOptionValue("kind"));
+                System.exit(1);
+            }
+        }
+
+        StateStore stateStore = new StateStore(cmd.getOptionValue("db", "state.db"));
+        stateStore.init();
+
+        long start = System.nanoTime();
+        List<DurationRollup> rollups = stateStore.queryRollups(
+                kind,
+                cmd.getOptionValue("workflow"),
+                cmd.getOptionValue("branch"),
+                cmd.getOptionValue("job"),
+                cmd.getOptionValue("step"),
+                cmd.hasOption("per-branch")
+        );
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        if (rollups.isEmpty()) {
+            System.out.println("No completed jobs or steps recorded yet");
+        }
+        for (DurationRollup rollup : rollups) {
+            System.out.println(rollup);
+        }
+        System.out.println("Report built in " + elapsedMillis + " ms");
+    }
+}
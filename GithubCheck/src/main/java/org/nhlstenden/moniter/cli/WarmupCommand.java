@@ -0,0 +1,73 @@
+package org.nhlstenden.moniter.cli;
+
+import org.nhlstenden.moniter.api.GithubClient;
+import org.nhlstenden.moniter.model.Job;
+import org.nhlstenden.moniter.model.Step;
+import org.nhlstenden.moniter.model.WorkflowRun;
+import org.nhlstenden.moniter.storage.StateStore;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.util.List;
+
+/**
+ * Training run for the AppCDS archive
+ * Walks the same code paths as a real poll without touching the network,
+ * so every class needed for the first poll ends up in the archive
+ */
+public final class WarmupCommand {
+    private static final String SAMPLE_RUNS = """
+            {"total_count":1,"workflow_runs":[{"id":1,"name":"CI","status":"completed",
+            "conclusion":"success","head_branch":"main","head_sha":"0000000",
+            "created_at":"2024-01-01T00:00:00Z","updated_at":"2024-01-01T00:05:00Z"}]}
+            """;
+    private static final String SAMPLE_JOBS = """
+            {"total_count":1,"jobs":[{"id":2,"name":"build","status":"completed","conclusion":"success",
+            "started_at":"2024-01-01T00:00:10Z","completed_at":"2024-01-01T00:04:50Z",
+            "steps":[{"name":"Checkout","status":"completed","conclusion":"success",
+            "started_at":"2024-01-01T00:00:10Z","completed_at":"2024-01-01T00:00:20Z"}]}]}
+            """;
+
+    private WarmupCommand() {
+    }
+
+    public static void run() throws Exception {
+        CliOptions.parse(new String[]{"-r", "owner/repo", "-t", "token"});
+
+        GithubClient githubClient = new GithubClient("token");
+        List<WorkflowRun> runs = githubClient.parseWorkflowRuns(SAMPLE_RUNS);
+        List<Job> jobs = githubClient.parseJobs(SAMPLE_JOBS);
+
+        HttpClient.newHttpClient();
+        HttpRequest.newBuilder()
+                .uri(URI.create("https://api.github.com/"))
+                .header("Accept", "application/vnd.github+json")
+                .GET()
+                .build();
+
+        StateStore stateStore = new StateStore(":memory:");
+        stateStore.init();
+        stateStore.getLastCheckpoint();
+        for (WorkflowRun run : runs) {
+            stateStore.getWorkflowRunById(run.getId());
+            stateStore.saveWorkflowRun(run);
+            for (Job job : jobs) {
+                stateStore.hasJob(job.getId());
+                stateStore.saveJob(job, run.getId());
+                stateStore.hasJobComplete(job.getId());
+                stateStore.markJobComplete(run, job);
+                for (Step step : job.getSteps()) {
+                    stateStore.hasStep(job.getId(), step.getName());
+                    stateStore.saveStep(step, job.getId());
+                    stateStore.hasStepComplete(job.getId(), step.getName());
+                    stateStore.markStepComplete(run, job, step);
+                }
+            }
+            stateStore.updateLastCheckpoint(run.getUpdatedAt());
+        }
+        stateStore.queryRollups(null, null, null, null, null, false);
+
+        System.out.println("Warmup finished");
+    }
+}
@@ -0,0 +1,9 @@
+package org.nhlstenden.moniter.event;
+
+/**
+ * Receives every event after it has been persisted
+ */
+@FunctionalInterface
+public interface EventListener {
+    void onEvent(MonitorEvent event);
+}
@@ -0,0 +1,10 @@
+package org.nhlstenden.moniter.event;
+
+public enum EventType {
+    RUN_STARTED,
+    RUN_UPDATED,
+    JOB_STARTED,
+    JOB_COMPLETED,
+    STEP_STARTED,
+    STEP_COMPLETED
+}
@@ -0,0 +1,100 @@
+package org.nhlstenden.moniter.event;
+
+import org.nhlstenden.moniter.model.Job;
+import org.nhlstenden.moniter.model.Step;
+import org.nhlstenden.moniter.model.WorkflowRun;
+
+import java.time.Instant;
+
+/**
+ * A run, job or step transition detected by a poll
+ * Job and step are null for run events, step is null for job events
+ */
+public class MonitorEvent {
+    private final EventType type;
+    private final String repo;
+    private final WorkflowRun run;
+    private final Job job;
+    private final Step step;
+    private final Instant detectedAt;
+
+    public MonitorEvent(EventType type, String repo, WorkflowRun run, Job job, Step step) {
+        this.type = type;
+        this.repo = repo;
+        this.run = run;
+        this.job = job;
+        this.step = step;
+        this.detectedAt = Instant.now();
+    }
+
+    public EventType getType() {
+        return type;
+    }
+
+    public String getRepo() {
+        return repo;
+    }
+
+    public WorkflowRun getRun() {
+        return run;
+    }
+
+    public Job getJob() {
+        return job;
+    }
+
+    public Step getStep() {
+        return step;
+    }
+
+    public Instant getDetectedAt() {
+        return detectedAt;
+    }
+
+    @Override
+    public String toString() {
+        return switch (type) {
+            case RUN_STARTED, RUN_UPDATED -> run.toString();
+            case JOB_STARTED -> String.format(
+                    "Time=%s Event=JOB_STARTED Run=%d Job=%d Name=\"%s\" Branch=%s Sha=%s",
+                    job.getStartedAt(),
+                    run.getId(),
+                    job.getId(),
+                    job.getName(),
+                    run.getHeadBranch(),
+                    run.getHeadSha()
+            );
+            case JOB_COMPLETED -> String.format(
+                    "Time=%s Event=JOB_COMPLETED Run=%d Job=%d Name=\"%s\" Branch=%s Sha=%s conclusion=%s",
+                    job.getCompletedAt(),
+                    run.getId(),
+                    job.getId(),
+                    job.getName(),
+                    run.getHeadBranch(),
+                    run.getHeadSha(),
+                    job.getConclusion()
+            );
+            case STEP_STARTED -> String.format(
+                    "Time=%s Event=STEP_STARTED Run=%d Job=%d Job_name=\"%s\" Step=\"%s\" Branch=%s Sha=%s",
+                    step.getStartedAt(),
+                    run.getId(),
+                    job.getId(),
+                    job.getName(),
+                    step.getName(),
+                    run.getHeadBranch(),
+                    run.getHeadSha()
+            );
+            case STEP_COMPLETED -> String.format(
+                    "Time=%s Event=Step_COMPLETED Run=%d Job=%d Name=\"%s\" Step=\"%s\" Branch=%s Sha=%s Conclusion=%s",
+                    step.getCompletedAt(),
+                    run.getId(),
+                    job.getId(),
+                    job.getName(),
+                    step.getName(),
+                    run.getHeadBranch(),
+                    run.getHeadSha(),
+                    step.getConclusion()
+            );
+        };
+    }
+}
@@ -0,0 +1,199 @@
+package org.nhlstenden.moniter.export;
+
+import org.apache.arrow.compression.CommonsCompressionFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.compression.CompressionUtil;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.message.IpcOption;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.nhlstenden.moniter.storage.StateStore;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Write changed rows of a state table to a zstd compressed Arrow IPC file
+ * Rows are read straight from the result set into one record batch of a fixed
+ * size that is written and reused, so memory does not grow with the table.
+ * INTEGER columns become int64, *_at columns UTC timestamps and the rest UTF-8
+ */
+public class ArrowExporter implements AutoCloseable {
+    private final StateStore stateStore;
+    private final Path directory;
+    private final int rowGroupRows;
+    private final BufferAllocator allocator = new RootAllocator();
+
+    public ArrowExporter(StateStore stateStore, Path directory, int rowGroupRows) throws IOException {
+        if (rowGroupRows < 1) {
+            throw new IllegalArgumentException("Row group size must be at least 1");
+        }
+        this.stateStore = stateStore;
+        this.directory = Files.createDirectories(directory);
+        this.rowGroupRows = rowGroupRows;
+    }
+
+    /**
+     * Export the rows of a table with afterSeq < change_seq <= upToSeq
+     * @return rows written, no file is created when there are none
+     */
+    public long export(String table, long afterSeq, long upToSeq) throws SQLException, IOException {
+        Path target = directory.resolve(table + "-" + (afterSeq + 1) + "-" + upToSeq + ".arrow");
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        long[] written = new long[1];
+
+        try {
+            stateStore.readChanges(table, afterSeq, upToSeq, rs -> {
+                if (!rs.next()) {
+                    return;
+                }
+                List<Column> columns = columns(rs.getMetaData());
+                Schema schema = new Schema(columns.stream().map(Column::field).toList());
+                Map<String, String> metadata = Map.of(
+                        "table", table,
+                        "change_seq_after", Long.toString(afterSeq),
+                        "change_seq_up_to", Long.toString(upToSeq),
+                        "exported_at", ZonedDateTime.now().toString()
+                );
+
+                try (VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+                     FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE,
+                             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                     ArrowFileWriter writer = new ArrowFileWriter(root, null, file, metadata, IpcOption.DEFAULT,
+                             CommonsCompressionFactory.INSTANCE, CompressionUtil.CodecType.ZSTD)) {
+                    writer.start();
+                    startRowGroup(root);
+                    int row = 0;
+                    do {
+                        for (Column column : columns) {
+                            column.write(rs, root, row);
+                        }
+                        row++;
+                        written[0]++;
+                        if (row == rowGroupRows) {
+                            writeRowGroup(writer, root, row);
+                            startRowGroup(root);
+                            row = 0;
+                        }
+                    } while (rs.next());
+                    if (row > 0) {
+                        writeRowGroup(writer, root, row);
+                    }
+                    writer.end();
+                }
+            });
+
+            if (written[0] > 0) {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return written[0];
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void startRowGroup(VectorSchemaRoot root) {
+        for (FieldVector vector : root.getFieldVectors()) {
+            vector.setInitialCapacity(rowGroupRows);
+            vector.allocateNew();
+        }
+    }
+
+    private static void writeRowGroup(ArrowFileWriter writer, VectorSchemaRoot root, int rows) throws IOException {
+        root.setRowCount(rows);
+        writer.writeBatch();
+    }
+
+    private static List<Column> columns(ResultSetMetaData metaData) throws SQLException {
+        List<Column> columns = new ArrayList<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String name = metaData.getColumnName(i);
+            String type = metaData.getColumnTypeName(i).toUpperCase(Locale.ROOT);
+            ColumnType columnType;
+            if (type.contains("INT")) {
+                columnType = ColumnType.INT64;
+            } else if (name.endsWith("_at")) {
+                columnType = ColumnType.TIMESTAMP;
+            } else {
+                columnType = ColumnType.UTF8;
+            }
+            columns.add(new Column(i, name, columnType));
+        }
+        return columns;
+    }
+
+    @Override
+    public void close() {
+        allocator.close();
+    }
+
+    private enum ColumnType {
+        INT64(new ArrowType.Int(64, true)),
+        TIMESTAMP(new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC")),
+        UTF8(ArrowType.Utf8.INSTANCE);
+
+        private final ArrowType arrowType;
+
+        ColumnType(ArrowType arrowType) {
+            this.arrowType = arrowType;
+        }
+    }
+
+    private record Column(int index, String name, ColumnType type) {
+        Field field() {
+            return new Field(name, FieldType.nullable(type.arrowType), null);
+        }
+
+        void write(ResultSet rs, VectorSchemaRoot root, int row) throws SQLException {
+            FieldVector vector = root.getVector(index - 1);
+            switch (type) {
+                case INT64 -> {
+                    long value = rs.getLong(index);
+                    if (rs.wasNull()) {
+                        ((BigIntVector) vector).setNull(row);
+                    } else {
+                        ((BigIntVector) vector).setSafe(row, value);
+                    }
+                }
+                case TIMESTAMP -> {
+                    String value = rs.getString(index);
+                    if (value == null) {
+                        ((TimeStampMilliTZVector) vector).setNull(row);
+                    } else {
+                        ((TimeStampMilliTZVector) vector).setSafe(row, ZonedDateTime.parse(value).toInstant().toEpochMilli());
+                    }
+                }
+                case UTF8 -> {
+                    String value = rs.getString(index);
+                    if (value == null) {
+                        ((VarCharVector) vector).setNull(row);
+                    } else {
+                        ((VarCharVector) vector).setSafe(row, value.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.nhlstenden.moniter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One attempt of a GitHub request, a retried request emits one event per attempt
+ */
+@Name("org.nhlstenden.moniter.HttpRequest")
+@Label("GitHub Request")
+@Category({"GitHub Monitor", "GitHub API"})
+@Description("One attempt of a GitHub API request, including hedged copies")
+public class HttpRequestEvent extends Event {
+    @Label("URL")
+    public String url;
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Status Code")
+    @Description("HTTP status, -1 when no response arrived")
+    public int statusCode;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long payloadBytes;
+
+    @Label("Error")
+    public String error;
+}
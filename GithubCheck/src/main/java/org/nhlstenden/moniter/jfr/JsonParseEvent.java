@@ -0,0 +1,31 @@
+package org.nhlstenden.moniter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Decoding of one GitHub response body into model objects
+ */
+@Name("org.nhlstenden.moniter.JsonParse")
+@Label("JSON Parse")
+@Category({"GitHub Monitor", "GitHub API"})
+public class JsonParseEvent extends Event {
+    @Label("Payload Kind")
+    public String kind;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long payloadBytes;
+
+    @Label("Entities")
+    @Description("Entities converted to models")
+    public int entities;
+
+    @Label("Skipped")
+    @Description("Entities skipped because their fingerprint was unchanged")
+    public int skipped;
+}
@@ -0,0 +1,49 @@
+package org.nhlstenden.moniter.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Continuous Flight Recorder recording with the JDK default settings plus monitor.jfc
+ * Keeps the last hour on disk and writes it to the destination when the JVM exits,
+ * dump it earlier with jcmd <pid> JFR.dump name=github-monitor filename=<file>
+ */
+public final class MonitorRecording {
+    private static final String PRESET = "/monitor.jfc";
+
+    private MonitorRecording() {
+    }
+
+    public static Recording start(Path destination) throws IOException, ParseException {
+        Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+        try (InputStream in = MonitorRecording.class.getResourceAsStream(PRESET)) {
+            if (in == null) {
+                throw new IOException("Missing " + PRESET + " on the classpath");
+            }
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                settings.putAll(Configuration.create(reader).getSettings());
+            }
+        }
+
+        Recording recording = new Recording(settings);
+        recording.setName("github-monitor");
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofHours(1));
+        recording.setMaxSize(250L * 1024 * 1024);
+        recording.setDestination(destination);
+        recording.setDumpOnExit(true);
+        recording.start();
+        return recording;
+    }
+}
@@ -0,0 +1,37 @@
+package org.nhlstenden.moniter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One repo-wide listing poll or hot run poll, spans the request, the pipeline and the checkpoint
+ */
+@Name("org.nhlstenden.moniter.PollCycle")
+@Label("Poll Cycle")
+@Category({"GitHub Monitor", "Polling"})
+@Description("One poll of the run listing or of the queued and in progress runs")
+public class PollCycleEvent extends Event {
+    @Label("Repository")
+    public String repo;
+
+    @Label("Hot Runs Only")
+    @Description("Polled the jobs of queued and in progress runs without the listing")
+    public boolean hot;
+
+    @Label("Runs Listed")
+    public int runsListed;
+
+    @Label("Runs Processed")
+    @Description("Runs that went through the pipeline")
+    public int runsProcessed;
+
+    @Label("New Event")
+    @Description("A run started or changed, only set by listing polls")
+    public boolean newEvent;
+
+    @Label("Failed")
+    public boolean failed;
+}
@@ -0,0 +1,47 @@
+package org.nhlstenden.moniter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One StateStore call
+ * Only operations that return normally are recorded
+ */
+@Name("org.nhlstenden.moniter.StoreOperation")
+@Label("Store Operation")
+@Category({"GitHub Monitor", "SQLite"})
+public class StoreOperationEvent extends Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Id")
+    public long id;
+
+    @Label("Rows")
+    public int rows;
+
+    /**
+     * Create and begin an event
+     */
+    public static StoreOperationEvent start(String operation) {
+        StoreOperationEvent event = new StoreOperationEvent();
+        event.operation = operation;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit when the event is enabled and above its threshold
+     * @param id   run or job id the operation worked on, 0 when there is none
+     * @param rows rows written or read
+     */
+    public void finish(long id, int rows) {
+        if (shouldCommit()) {
+            this.id = id;
+            this.rows = rows;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.nhlstenden.moniter.model;
+
+import org.nhlstenden.moniter.stats.DurationHistogram;
+
+public class DurationRollup {
+    private String kind;
+    private String workflow;
+    private String branch;
+    private String jobName;
+    private String stepName;
+    private long total;
+    private long failures;
+    private final DurationHistogram histogram = new DurationHistogram();
+
+    public String getKind() {
+        return kind;
+    }
+
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    public String getWorkflow() {
+        return workflow;
+    }
+
+    public void setWorkflow(String workflow) {
+        this.workflow = workflow;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public void setBranch(String branch) {
+        this.branch = branch;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public void setJobName(String jobName) {
+        this.jobName = jobName;
+    }
+
+    public String getStepName() {
+        return stepName;
+    }
+
+    public void setStepName(String stepName) {
+        this.stepName = stepName;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public void setFailures(long failures) {
+        this.failures = failures;
+    }
+
+    public DurationHistogram getHistogram() {
+        return histogram;
+    }
+
+    public double getFailureRate() {
+        return total == 0 ? 0 : (double) failures / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s | Workflow: %s | Job: %s | Step: %s | Branch: %s | Runs: %d | Failure rate: %.1f%% | p50: %s | p95: %s",
+                kind, workflow, jobName,
+                stepName == null || stepName.isEmpty() ? "N/A" : stepName,
+                branch == null ? "*" : branch,
+                total, getFailureRate() * 100,
+                formatSeconds(histogram.percentile(50)),
+                formatSeconds(histogram.percentile(95))
+        );
+    }
+
+    private static String formatSeconds(long seconds) {
+        return seconds < 0 ? "N/A" : seconds + "s";
+    }
+}
@@ -11,6 +11,8 @@ public class Job {
     private String name;
     private String status;
     private String conclusion;
+    @JsonProperty("created_at")
+    private ZonedDateTime createdAt;
     @JsonProperty("started_at")
     private ZonedDateTime startedAt;
     @JsonProperty("completed_at")
@@ -49,6 +51,14 @@ public class Job {
         this.conclusion = conclusion;
     }
 
+    public ZonedDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(ZonedDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
     public ZonedDateTime getStartedAt() {
         return startedAt;
     }
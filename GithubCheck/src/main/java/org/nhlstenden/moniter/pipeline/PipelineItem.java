@@ -0,0 +1,16 @@
+package org.nhlstenden.moniter.pipeline;
+
+/**
+ * Unit of work flowing through the stages
+ */
+public interface PipelineItem {
+    /**
+     * Called once the item leaves the pipeline normally
+     */
+    void complete();
+
+    /**
+     * Called once when a stage failed on the item, it is not forwarded
+     */
+    void fail(Exception e);
+}
@@ -0,0 +1,145 @@
+package org.nhlstenden.moniter.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One pipeline stage: a bounded input queue drained by a fixed number of workers
+ * Forwarding blocks while the next queue is full, so a slow stage pushes back
+ * on everything upstream of it instead of letting queues grow
+ */
+public class Stage<T extends PipelineItem> {
+    private final String name;
+    private final int workerCount;
+    private final BlockingQueue<T> queue;
+    private final StageHandler<T> handler;
+    private final List<Thread> workers = new ArrayList<>();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private Stage<T> next;
+
+    private long lastProcessed;
+    private long lastBusyNanos;
+    private long lastBlockedNanos;
+    private long lastSampleNanos = System.nanoTime();
+
+    public Stage(String name, int workerCount, int capacity, StageHandler<T> handler) {
+        if (workerCount < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Stage " + name + " needs at least one worker and one queue slot");
+        }
+        this.name = name;
+        this.workerCount = workerCount;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.handler = handler;
+    }
+
+    public void setNext(Stage<T> next) {
+        this.next = next;
+    }
+
+    public void start() {
+        for (int i = 1; i <= workerCount; i++) {
+            Thread worker = new Thread(this::work, "pipeline-" + name + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    public void stop() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Enqueue an item, blocks while the queue is full
+     */
+    public void put(T item) throws InterruptedException {
+        queue.put(item);
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            T item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            try {
+                boolean forward = handler.handle(item);
+                long handled = System.nanoTime();
+                busyNanos.add(handled - start);
+                processed.increment();
+
+                if (forward && next != null) {
+                    next.put(item);
+                    blockedNanos.add(System.nanoTime() - handled);
+                } else {
+                    item.complete();
+                }
+            } catch (InterruptedException e) {
+                item.fail(e);
+                return;
+            } catch (Exception e) {
+                processed.increment();
+                item.fail(e);
+            } catch (Throwable e) {
+                //The worker carries on, the item must still reach whoever waits for it
+                processed.increment();
+                System.err.println("Stage " + name + " failed on an item: " + e);
+                item.fail(new IllegalStateException("Stage " + name + " failed: " + e, e));
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    /**
+     * Queue depth, throughput and how the workers spent their time since the previous call
+     * Blocked is time spent waiting for room in the next stage
+     */
+    public synchronized String describe() {
+        long now = System.nanoTime();
+        long processedNow = processed.sum();
+        long busyNow = busyNanos.sum();
+        long blockedNow = blockedNanos.sum();
+
+        double elapsed = Math.max(now - lastSampleNanos, 1);
+        double workerNanos = elapsed * workerCount;
+        String stats = String.format(
+                "%s: workers=%d queue=%d/%d processed=%d rate=%.1f/s busy=%.0f%% blocked=%.0f%%",
+                name, workerCount, getQueueDepth(), getQueueCapacity(), processedNow,
+                (processedNow - lastProcessed) / (elapsed / 1_000_000_000.0),
+                (busyNow - lastBusyNanos) * 100 / workerNanos,
+                (blockedNow - lastBlockedNanos) * 100 / workerNanos
+        );
+
+        lastSampleNanos = now;
+        lastProcessed = processedNow;
+        lastBusyNanos = busyNow;
+        lastBlockedNanos = blockedNow;
+        return stats;
+    }
+}
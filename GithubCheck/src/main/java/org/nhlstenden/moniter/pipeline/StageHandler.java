@@ -0,0 +1,10 @@
+package org.nhlstenden.moniter.pipeline;
+
+@FunctionalInterface
+public interface StageHandler<T extends PipelineItem> {
+    /**
+     * Process an item
+     * @return true to forward it to the next stage, false when it is done
+     */
+    boolean handle(T item) throws Exception;
+}
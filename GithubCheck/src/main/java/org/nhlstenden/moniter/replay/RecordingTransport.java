@@ -0,0 +1,81 @@
+package org.nhlstenden.moniter.replay;
+
+import org.nhlstenden.moniter.api.ApiResponse;
+import org.nhlstenden.moniter.api.HttpTransport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Passes requests to another transport and appends every response to a recording
+ * The Authorization header is never written. Each record is sync flushed, so a
+ * recording stays readable when the process is killed
+ */
+public class RecordingTransport implements HttpTransport {
+    private final HttpTransport delegate;
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private int recorded;
+    private boolean closed;
+
+    public RecordingTransport(HttpTransport delegate, Path file) throws IOException {
+        this.delegate = delegate;
+        this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file), 64 * 1024, true)));
+        TrafficFile.writeHeader(out);
+        out.flush();
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> send(HttpRequest request) {
+        long sentNanos = System.nanoTime();
+        CompletableFuture<ApiResponse> response = delegate.send(request);
+        //Failed and cancelled requests have nothing to replay
+        response.thenAccept(result -> write(new TrafficRecord(sentNanos - startNanos, System.nanoTime() - sentNanos,
+                request.method(), request.uri().toString(), requestHeaders(request), result)));
+        return response;
+    }
+
+    private synchronized void write(TrafficRecord record) {
+        if (closed) {
+            return;
+        }
+        try {
+            TrafficFile.write(out, record);
+            out.flush();
+            recorded++;
+        } catch (IOException e) {
+            System.err.println("Recording " + record.url() + " failed: " + e.getMessage());
+        }
+    }
+
+    public synchronized int getRecorded() {
+        return recorded;
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Closing recording failed: " + e.getMessage());
+        }
+    }
+
+    private static Map<String, List<String>> requestHeaders(HttpRequest request) {
+        Map<String, List<String>> headers = new LinkedHashMap<>(request.headers().map());
+        headers.keySet().removeIf(name -> name.equalsIgnoreCase("Authorization"));
+        return headers;
+    }
+}
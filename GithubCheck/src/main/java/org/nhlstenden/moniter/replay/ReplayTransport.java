@@ -0,0 +1,150 @@
+package org.nhlstenden.moniter.replay;
+
+import org.nhlstenden.moniter.api.ApiResponse;
+import org.nhlstenden.moniter.api.HttpTransport;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Answers requests from a recording instead of the network
+ * Responses for the same url are handed out in recorded order, so concurrent
+ * fetches may ask in a different order than they were recorded. A response is
+ * released no earlier than its recorded arrival time divided by the speed,
+ * counted from the first request. Speed 0 answers immediately
+ * A request the recording has no response for is answered with 404, which the client
+ * does not retry, and reported once per url. The replay carries on with the requests it can answer
+ */
+public class ReplayTransport implements HttpTransport {
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final Map<String, Queue<TrafficRecord>> records = new HashMap<>();
+    private final Set<String> reported = new HashSet<>();
+    private final double speed;
+    private final ScheduledExecutorService timer;
+    private int remaining;
+    private int unmatched;
+    private long endNanos;
+    private long maxGapNanos;
+    private long startNanos = -1;
+    private long lastAnsweredNanos;
+
+    public ReplayTransport(Path file, double speed) throws IOException {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Replay speed must not be negative");
+        }
+        this.speed = speed;
+        try (InputStream raw = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(raw, 64 * 1024)))) {
+            TrafficFile.readHeader(in);
+            TrafficRecord record;
+            long previousOffset = 0;
+            while ((record = TrafficFile.read(in)) != null) {
+                records.computeIfAbsent(key(record.method(), record.url()), k -> new ArrayDeque<>()).add(record);
+                remaining++;
+                endNanos = Math.max(endNanos, record.offsetNanos() + record.durationNanos());
+                maxGapNanos = Math.max(maxGapNanos, record.offsetNanos() - previousOffset);
+                previousOffset = record.offsetNanos();
+            }
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replay-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> send(HttpRequest request) {
+        TrafficRecord record;
+        long delayNanos;
+        synchronized (this) {
+            String key = key(request.method(), request.uri().toString());
+            Queue<TrafficRecord> queue = records.get(key);
+            record = queue == null ? null : queue.poll();
+            if (record == null) {
+                unmatched++;
+                if (reported.add(key)) {
+                    System.err.println("Replay has no recorded response for " + key);
+                }
+                return CompletableFuture.completedFuture(new ApiResponse(404, Map.of(),
+                        "{\"message\":\"No recorded response left for " + request.uri() + "\"}"));
+            }
+            remaining--;
+            long now = System.nanoTime();
+            lastAnsweredNanos = now;
+            if (startNanos < 0) {
+                startNanos = now - scaled(record.offsetNanos());
+            }
+            delayNanos = startNanos + scaled(record.offsetNanos() + record.durationNanos()) - now;
+        }
+
+        if (delayNanos <= 0) {
+            return CompletableFuture.completedFuture(record.response());
+        }
+        CompletableFuture<ApiResponse> response = new CompletableFuture<>();
+        timer.schedule(() -> response.complete(record.response()), delayNanos, TimeUnit.NANOSECONDS);
+        return response;
+    }
+
+    /**
+     * Recorded responses not handed out yet
+     */
+    public synchronized int getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Requests the recording had no response for
+     */
+    public synchronized int getUnmatched() {
+        return unmatched;
+    }
+
+    /**
+     * Every response was handed out, or the recorded timeline is over. Responses left then
+     * belong to requests this run no longer makes. Without waiting the replay is over once
+     * no request was answered for two seconds
+     */
+    public synchronized boolean isFinished() {
+        if (remaining == 0) {
+            return true;
+        }
+        if (startNanos < 0) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (speed == 0) {
+            return now - lastAnsweredNanos > IDLE_NANOS;
+        }
+        return now > startNanos + scaled(endNanos + maxGapNanos);
+    }
+
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    private long scaled(long nanos) {
+        return speed == 0 ? 0 : (long) (nanos / speed);
+    }
+
+    private static String key(String method, String url) {
+        return method + " " + url;
+    }
+}
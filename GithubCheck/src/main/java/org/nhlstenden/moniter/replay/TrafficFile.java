@@ -0,0 +1,102 @@
+package org.nhlstenden.moniter.replay;
+
+import org.nhlstenden.moniter.api.ApiResponse;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary layout of a recording, the whole stream is gzip compressed
+ * Header: magic "GHRC" and a version byte, followed by records until the end of the stream
+ * Record: offset, duration, method, url, request headers, status, response headers, body
+ */
+final class TrafficFile {
+    static final int MAGIC = 0x47485243;
+    static final byte VERSION = 1;
+
+    private TrafficFile() {
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    static void readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a traffic recording");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+    }
+
+    static void write(DataOutputStream out, TrafficRecord record) throws IOException {
+        out.writeLong(record.offsetNanos());
+        out.writeLong(record.durationNanos());
+        out.writeUTF(record.method());
+        out.writeUTF(record.url());
+        writeHeaders(out, record.requestHeaders());
+        out.writeShort(record.response().getStatusCode());
+        writeHeaders(out, record.response().getHeaders());
+        byte[] body = record.response().getBody().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    /**
+     * @return the next record, or null at the end of the recording
+     * A recording cut off by a killed process ends at its last complete record
+     */
+    static TrafficRecord read(DataInputStream in) throws IOException {
+        try {
+            long offsetNanos = in.readLong();
+            long durationNanos = in.readLong();
+            String method = in.readUTF();
+            String url = in.readUTF();
+            Map<String, List<String>> requestHeaders = readHeaders(in);
+            int status = in.readShort();
+            Map<String, List<String>> responseHeaders = readHeaders(in);
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            ApiResponse response = new ApiResponse(status, responseHeaders, new String(body, StandardCharsets.UTF_8));
+            return new TrafficRecord(offsetNanos, durationNanos, method, url, requestHeaders, response);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void writeHeaders(DataOutputStream out, Map<String, List<String>> headers) throws IOException {
+        out.writeShort(headers.size());
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeShort(header.getValue().size());
+            for (String value : header.getValue()) {
+                out.writeUTF(value);
+            }
+        }
+    }
+
+    private static Map<String, List<String>> readHeaders(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int valueCount = in.readUnsignedShort();
+            List<String> values = new ArrayList<>(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                values.add(in.readUTF());
+            }
+            headers.put(name, values);
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,15 @@
+package org.nhlstenden.moniter.replay;
+
+import org.nhlstenden.moniter.api.ApiResponse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One recorded request/response pair
+ * @param offsetNanos   when the request was sent, relative to the start of the recording
+ * @param durationNanos time until the response arrived
+ */
+public record TrafficRecord(long offsetNanos, long durationNanos, String method, String url,
+                            Map<String, List<String>> requestHeaders, ApiResponse response) {
+}
@@ -0,0 +1,45 @@
+package org.nhlstenden.moniter.scheduler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Fingerprints of the raw run and job payloads whose state is in the state store
+ * Bounded, the least recently seen ids are dropped and are simply decoded again
+ */
+class FingerprintCache {
+    private final Map<Long, Long> runs;
+    private final Map<Long, Long> jobs;
+
+    FingerprintCache(int maxEntries) {
+        this.runs = lru(maxEntries);
+        this.jobs = lru(maxEntries);
+    }
+
+    boolean runChanged(long runId, long fingerprint) {
+        return !Objects.equals(runs.get(runId), fingerprint);
+    }
+
+    boolean jobChanged(long jobId, long fingerprint) {
+        return !Objects.equals(jobs.get(jobId), fingerprint);
+    }
+
+    void putRun(long runId, long fingerprint) {
+        runs.put(runId, fingerprint);
+    }
+
+    void putJob(long jobId, long fingerprint) {
+        jobs.put(jobId, fingerprint);
+    }
+
+    private static Map<Long, Long> lru(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+}
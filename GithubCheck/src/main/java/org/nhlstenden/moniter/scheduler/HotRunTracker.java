@@ -0,0 +1,125 @@
+package org.nhlstenden.moniter.scheduler;
+
+import org.nhlstenden.moniter.model.WorkflowRun;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs that are queued or in progress, their jobs are polled at a short interval
+ * A run leaves the set when the run listing reports it settled, or when it dropped
+ * out of the listing and all of its jobs have a conclusion
+ * Active runs that do not fit in the set or have been hot for too long are kept as
+ * overflow, the listing fetches their jobs every time until it reports them settled
+ * Only used from the scheduler thread
+ */
+class HotRunTracker {
+    private static final Set<String> ACTIVE_STATUSES = Set.of("queued", "in_progress");
+
+    private final Map<Long, WorkflowRun> runs = new LinkedHashMap<>();
+    private final Map<Long, Instant> since = new LinkedHashMap<>();
+    private final Set<Long> missingFromListing = new HashSet<>();
+    private final Set<Long> overflow = new HashSet<>();
+    private final int maxRuns;
+    private final Duration maxAge;
+
+    HotRunTracker(int maxRuns, Duration maxAge) {
+        this.maxRuns = maxRuns;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Apply a repo-wide listing
+     * @param listed    ids of every run the listing returned
+     * @param changed   the runs of the listing whose fingerprint changed, the others
+     *                  are as they were in the previous listing
+     * @param processed the runs that went through the pipeline in this poll
+     */
+    void update(Set<Long> listed, List<WorkflowRun> changed, List<WorkflowRun> processed) {
+        for (WorkflowRun run : changed) {
+            if (!isActive(run)) {
+                overflow.remove(run.getId());
+            }
+            if (!runs.containsKey(run.getId())) {
+                continue;
+            }
+            if (isActive(run)) {
+                runs.put(run.getId(), run);
+            } else {
+                remove(run.getId());
+            }
+        }
+
+        //Only runs that are stored can be polled without the listing
+        for (WorkflowRun run : processed) {
+            if (!isActive(run) || runs.containsKey(run.getId())) {
+                continue;
+            }
+            if (runs.size() < maxRuns && !overflow.contains(run.getId())) {
+                runs.put(run.getId(), run);
+                since.put(run.getId(), Instant.now());
+            } else {
+                overflow.add(run.getId());
+            }
+        }
+        overflow.retainAll(listed);
+
+        missingFromListing.clear();
+        for (Long runId : runs.keySet()) {
+            if (!listed.contains(runId)) {
+                missingFromListing.add(runId);
+            }
+        }
+    }
+
+    /**
+     * An active run without hot polls, the listing has to fetch its jobs even when the
+     * run itself did not change
+     */
+    boolean isOverflow(long runId) {
+        return overflow.contains(runId);
+    }
+
+    /**
+     * All jobs of a run have a conclusion, it is dropped when the listing no longer shows it
+     */
+    void jobsSettled(long runId) {
+        if (missingFromListing.contains(runId)) {
+            remove(runId);
+        }
+    }
+
+    /**
+     * Runs to poll now, runs hot for longer than the maximum age are left to the listing
+     */
+    List<WorkflowRun> runs() {
+        Instant oldest = Instant.now().minus(maxAge);
+        for (Long runId : new ArrayList<>(runs.keySet())) {
+            if (since.get(runId).isBefore(oldest)) {
+                remove(runId);
+                overflow.add(runId);
+            }
+        }
+        return new ArrayList<>(runs.values());
+    }
+
+    int size() {
+        return runs.size();
+    }
+
+    private void remove(long runId) {
+        runs.remove(runId);
+        since.remove(runId);
+        missingFromListing.remove(runId);
+    }
+
+    static boolean isActive(WorkflowRun run) {
+        return ACTIVE_STATUSES.contains(run.getStatus());
+    }
+}
@@ -0,0 +1,54 @@
+package org.nhlstenden.moniter.scheduler;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks the runs one poll handed to the pipeline, so the poll can wait for
+ * all of them before it moves the checkpoint
+ */
+class PollCycle {
+    private final CountDownLatch remaining;
+    private final AtomicBoolean newEvent = new AtomicBoolean();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    PollCycle(int runs) {
+        this.remaining = new CountDownLatch(runs);
+    }
+
+    void markNewEvent() {
+        newEvent.set(true);
+    }
+
+    boolean hasNewEvent() {
+        return newEvent.get();
+    }
+
+    void runDone() {
+        remaining.countDown();
+    }
+
+    void runFailed(Exception e) {
+        failure.compareAndSet(null, e);
+        remaining.countDown();
+    }
+
+    /**
+     * Wait until every run left the pipeline, rethrows the first failure
+     * Runs still in the pipeline after the timeout fail the cycle, they finish on their own
+     */
+    void await(Duration timeout) throws Exception {
+        if (!remaining.await(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException(remaining.getCount() + " runs still in the pipeline after "
+                    + timeout.toSeconds() + "s");
+        }
+        Exception e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.nhlstenden.moniter.scheduler;
+
+import org.nhlstenden.moniter.api.GithubClient;
+import org.nhlstenden.moniter.api.ParsedJobs;
+import org.nhlstenden.moniter.event.EventListener;
+import org.nhlstenden.moniter.event.EventType;
+import org.nhlstenden.moniter.event.MonitorEvent;
+import org.nhlstenden.moniter.model.Job;
+import org.nhlstenden.moniter.model.Step;
+import org.nhlstenden.moniter.model.WorkflowRun;
+import org.nhlstenden.moniter.pipeline.Stage;
+import org.nhlstenden.moniter.storage.StateStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Processes workflow runs in five stages connected by bounded queues
+ * fetch: download the jobs of a run
+ * decode: parse the jobs whose fingerprint changed
+ * diff: compare jobs and steps with the state store and collect events
+ * persist: write the events to the state store, then remember the fingerprints
+ * emit: hand the events to the listeners
+ */
+public class PollPipeline {
+    public static final List<String> STAGE_NAMES = List.of("fetch", "decode", "diff", "persist", "emit");
+    private static final Map<String, Integer> DEFAULT_WORKERS = Map.of(
+            "fetch", 4,
+            "decode", 2,
+            "diff", 1,
+            "persist", 1,
+            "emit", 1
+    );
+
+    private final GithubClient githubClient;
+    private final StateStore stateStore;
+    private final String owner;
+    private final String repo;
+    private final List<EventListener> listeners;
+    private final FingerprintCache fingerprints;
+    private final List<Stage<RunWork>> stages = new ArrayList<>();
+
+    /**
+     * @param workers  worker count per stage name, missing stages use the defaults
+     * @param capacity queue capacity of every stage
+     */
+    PollPipeline(GithubClient githubClient, StateStore stateStore, String owner, String repo,
+                 List<EventListener> listeners, FingerprintCache fingerprints, Map<String, Integer> workers, int capacity) {
+        this.githubClient = githubClient;
+        this.stateStore = stateStore;
+        this.owner = owner;
+        this.repo = repo;
+        this.listeners = listeners;
+        this.fingerprints = fingerprints;
+
+        stages.add(new Stage<>("fetch", workersFor("fetch", workers), capacity, this::fetch));
+        stages.add(new Stage<>("decode", workersFor("decode", workers), capacity, this::decode));
+        stages.add(new Stage<>("diff", workersFor("diff", workers), capacity, this::diff));
+        stages.add(new Stage<>("persist", workersFor("persist", workers), capacity, this::persist));
+        stages.add(new Stage<>("emit", workersFor("emit", workers), capacity, this::emit));
+        for (int i = 0; i + 1 < stages.size(); i++) {
+            stages.get(i).setNext(stages.get(i + 1));
+        }
+    }
+
+    private static int workersFor(String stage, Map<String, Integer> workers) {
+        return workers.getOrDefault(stage, DEFAULT_WORKERS.get(stage));
+    }
+
+    void start() {
+        stages.forEach(Stage::start);
+    }
+
+    void stop() {
+        stages.forEach(Stage::stop);
+    }
+
+    /**
+     * Hand a run to the first stage, blocks while the pipeline is full
+     */
+    void submit(RunWork work) throws InterruptedException {
+        stages.get(0).put(work);
+    }
+
+    /**
+     * One line per stage with queue depth and throughput
+     */
+    public String describe() {
+        return stages.stream().map(Stage::describe).collect(Collectors.joining(System.lineSeparator()));
+    }
+
+    private boolean fetch(RunWork work) throws Exception {
+        work.setJobsBody(githubClient.fetchJobs(owner, repo, work.getRun().getId()));
+        return true;
+    }
+
+    private boolean decode(RunWork work) {
+        //Jobs unchanged since their state was persisted are skipped before decoding
+        Map<Long, Long> changed = new HashMap<>();
+        ParsedJobs parsed = githubClient.parseJobs(work.getJobsBody(), (jobId, fingerprint) -> {
+            if (!fingerprints.jobChanged(jobId, fingerprint)) {
+                return false;
+            }
+            changed.put(jobId, fingerprint);
+            return true;
+        });
+        work.setJobs(parsed.jobs());
+        work.setJobFingerprints(changed);
+        work.setJobsBody(null);
+        work.setJobsSettled(parsed.settled());
+        return true;
+    }
+
+    private boolean diff(RunWork work) throws Exception {
+        WorkflowRun run = work.getRun();
+        List<MonitorEvent> events = new ArrayList<>();
+
+        //Workflow run started / updated, jobs only polls leave the run to the listing
+        if (work.getRunFingerprint() != null) {
+            WorkflowRun storedRun = stateStore.getWorkflowRunById(run.getId());
+            if (storedRun == null) {
+                events.add(event(EventType.RUN_STARTED, run, null, null));
+            } else if (storedRun.hasStatusOrConclusionChanged(run)) {
+                events.add(event(EventType.RUN_UPDATED, run, null, null));
+            }
+        }
+
+        for (Job job : work.getJobs()) {
+            boolean knownJob = stateStore.hasJob(job.getId());
+            //Job started
+            if (!knownJob) {
+                events.add(event(EventType.JOB_STARTED, run, job, null));
+            }
+            //Job completed
+            if (job.getConclusion() != null && (!knownJob || !stateStore.hasJobComplete(job.getId()))) {
+                events.add(event(EventType.JOB_COMPLETED, run, job, null));
+            }
+
+            //Steps with the same name share one row, only report them once
+            Set<String> startedSteps = new HashSet<>();
+            Set<String> completedSteps = new HashSet<>();
+            for (Step step : job.getSteps()) {
+                boolean knownStep = knownJob && stateStore.hasStep(job.getId(), step.getName());
+                //Step started
+                if (!knownStep && startedSteps.add(step.getName())) {
+                    events.add(event(EventType.STEP_STARTED, run, job, step));
+                }
+
+                //Step completed
+                if (step.getConclusion() != null
+                        && (!knownStep || !stateStore.hasStepComplete(job.getId(), step.getName()))
+                        && completedSteps.add(step.getName())) {
+                    events.add(event(EventType.STEP_COMPLETED, run, job, step));
+                }
+            }
+        }
+
+        work.setJobs(null);
+        work.setEvents(events);
+        return !events.isEmpty() || work.getRunFingerprint() != null || !work.getJobFingerprints().isEmpty();
+    }
+
+    private boolean persist(RunWork work) throws Exception {
+        for (MonitorEvent event : work.getEvents()) {
+            WorkflowRun run = event.getRun();
+            Job job = event.getJob();
+            switch (event.getType()) {
+                case RUN_STARTED -> {
+                    stateStore.saveWorkflowRun(run);
+                    work.getCycle().markNewEvent();
+                }
+                case RUN_UPDATED -> {
+                    stateStore.updateWorkflowRun(run);
+                    work.getCycle().markNewEvent();
+                }
+                case JOB_STARTED -> stateStore.saveJob(job, run.getId());
+                case JOB_COMPLETED -> stateStore.markJobComplete(run, job);
+                case STEP_STARTED -> stateStore.saveStep(event.getStep(), job.getId());
+                case STEP_COMPLETED -> stateStore.markStepComplete(run, job, event.getStep());
+            }
+        }
+
+        //Only now is the state behind these fingerprints stored
+        if (work.getRunFingerprint() != null) {
+            fingerprints.putRun(work.getRun().getId(), work.getRunFingerprint());
+        }
+        work.getJobFingerprints().forEach(fingerprints::putJob);
+        return !work.getEvents().isEmpty();
+    }
+
+    private boolean emit(RunWork work) {
+        for (MonitorEvent event : work.getEvents()) {
+            for (EventListener listener : listeners) {
+                //A failing listener must not hold back the others
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException e) {
+                    System.err.println("Event listener failed: " + e.getMessage());
+                }
+            }
+        }
+        return false;
+    }
+
+    private MonitorEvent event(EventType type, WorkflowRun run, Job job, Step step) {
+        return new MonitorEvent(type, owner + "/" + repo, run, job, step);
+    }
+}
@@ -1,18 +1,32 @@
 package org.nhlstenden.moniter.scheduler;
 
 import org.nhlstenden.moniter.api.GithubClient;
-import org.nhlstenden.moniter.model.Job;
-import org.nhlstenden.moniter.model.Step;
+import org.nhlstenden.moniter.event.EventListener;
+import org.nhlstenden.moniter.event.MonitorEvent;
+import org.nhlstenden.moniter.jfr.PollCycleEvent;
 import org.nhlstenden.moniter.model.WorkflowRun;
+import org.nhlstenden.moniter.stats.DetectionLagTracker;
+import org.nhlstenden.moniter.stats.StartupTimer;
 import org.nhlstenden.moniter.storage.StateStore;
 
+import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class PollingService {
+    //A cycle that takes longer has a stuck run, give up on it so later polls still run
+    private static final Duration CYCLE_TIMEOUT = Duration.ofMinutes(5);
+    //Jobs requests the hot polls may send per hour, the rest of the 5000/h token limit is
+    //left to the listing and the jobs it fetches itself
+    public static final int HOT_REQUESTS_PER_HOUR = 1800;
+
     private final ScheduledExecutorService scheduler;
     private final GithubClient githubClient;
     private final StateStore stateStore;
@@ -20,7 +34,17 @@ public class PollingService {
     private final String repo;
     private boolean isFirstPoll;
     private final ZonedDateTime startupTime;
-
+    private final List<EventListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> stageWorkers = new HashMap<>();
+    private int queueCapacity = 16;
+    private boolean printPipelineStats;
+    private boolean printLagStats;
+    private double timeScale = 1;
+    private final DetectionLagTracker lagTracker = new DetectionLagTracker();
+    private PollPipeline pipeline;
+    private HotRunTracker hotRuns;
+    private long hotIntervalMillis;
+    private final FingerprintCache fingerprints = new FingerprintCache(50_000);
 
     public PollingService(GithubClient githubClient, StateStore stateStore, String owner, String repo, boolean isFirstStart, ZonedDateTime startupTime) {
         this.scheduler = Executors.newSingleThreadScheduledExecutor();
@@ -30,96 +54,181 @@ public class PollingService {
         this.repo = repo;
         this.isFirstPoll = isFirstStart;
         this.startupTime = startupTime;
+        this.listeners.add(lagTracker);
+        this.listeners.add(this::printEvent);
+    }
+
+    /**
+     * Receive every event after it has been written to the state store
+     */
+    public void addEventListener(EventListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Number of workers for a pipeline stage, see PollPipeline.STAGE_NAMES
+     */
+    public void setStageWorkers(String stage, int workers) {
+        if (!PollPipeline.STAGE_NAMES.contains(stage)) {
+            throw new IllegalArgumentException("Unknown pipeline stage " + stage);
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("Stage " + stage + " needs at least one worker");
+        }
+        stageWorkers.put(stage, workers);
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Print queue depth and throughput of every stage after each poll
+     */
+    public void setPrintPipelineStats(boolean printPipelineStats) {
+        this.printPipelineStats = printPipelineStats;
+    }
+
+    /**
+     * Warn about events detected later than this after GitHub changed them
+     */
+    public void setLagBudget(Duration lagBudget) {
+        lagTracker.setBudget(lagBudget);
+    }
+
+    /**
+     * Print detection lag percentiles every minute
+     */
+    public void setPrintLagStats(boolean printLagStats) {
+        this.printLagStats = printLagStats;
+    }
+
+    /**
+     * Run the listing, hot polls and lag stats this many times faster, so a replay
+     * sends its requests at the recorded pace. 0 runs them back to back
+     */
+    public void setTimeScale(double timeScale) {
+        if (timeScale < 0) {
+            throw new IllegalArgumentException("Time scale must not be negative");
+        }
+        this.timeScale = timeScale;
     }
 
-    public void start(long intervalSeconds) {
+    /**
+     * @param intervalSeconds    interval of the repo-wide run listing
+     * @param hotIntervalSeconds interval of the jobs polls of queued and in progress runs
+     */
+    public void start(long intervalSeconds, long hotIntervalSeconds) {
+        pipeline = new PollPipeline(githubClient, stateStore, owner, repo, listeners, fingerprints, stageWorkers, queueCapacity);
+        pipeline.start();
+        hotRuns = new HotRunTracker(maxHotRuns(intervalSeconds), Duration.ofHours(6));
+        hotIntervalMillis = hotIntervalSeconds * 1000;
+
+        //Both tasks share the scheduler thread, so they never overlap
         scheduler.scheduleAtFixedRate(
                 this::pollOnce,
                 0,
-                intervalSeconds,
-                TimeUnit.SECONDS
+                scaledMillis(intervalSeconds),
+                TimeUnit.MILLISECONDS
         );
+        scheduleHotPoll(0);
+        if (printLagStats) {
+            scheduler.scheduleAtFixedRate(
+                    () -> lagTracker.describe().forEach(System.out::println),
+                    scaledMillis(60),
+                    scaledMillis(60),
+                    TimeUnit.MILLISECONDS
+            );
+        }
+    }
+
+    private long scaledMillis(long seconds) {
+        return scaled(seconds * 1000);
+    }
+
+    private long scaled(long millis) {
+        if (timeScale == 0) {
+            return 1;
+        }
+        return Math.max(1, Math.round(millis / timeScale));
+    }
+
+    /**
+     * Hot runs polled more often than the listing, a larger hot set would only poll
+     * them as often as the listing does and spend the budget on nothing
+     */
+    static int maxHotRuns(long intervalSeconds) {
+        return (int) Math.max(1, HOT_REQUESTS_PER_HOUR * intervalSeconds / 3600);
+    }
+
+    /**
+     * Hot polls run every hot interval, or less often when the hot set is so large
+     * that one request per run would exceed HOT_REQUESTS_PER_HOUR
+     */
+    static long hotDelayMillis(long hotIntervalMillis, int hotRuns) {
+        return Math.max(hotIntervalMillis, hotRuns * 3_600_000L / HOT_REQUESTS_PER_HOUR);
+    }
+
+    private void scheduleHotPoll(int polledRuns) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(this::hotPollTick,
+                scaled(hotDelayMillis(hotIntervalMillis, polledRuns)), TimeUnit.MILLISECONDS);
+    }
+
+    private void hotPollTick() {
+        int polledRuns = 0;
+        try {
+            polledRuns = pollHotRuns();
+        } finally {
+            //Always schedule the next one, a throwing task would end the chain
+            scheduleHotPoll(polledRuns);
+        }
     }
 
     private void pollOnce() {
-        boolean hasNewEvent = false;
+        PollCycleEvent event = new PollCycleEvent();
+        event.begin();
         try {
 
             System.out.println("Polling GitHub workflows...");
             //The last poll time
             ZonedDateTime checkpoint = stateStore.getLastCheckpoint().orElse(startupTime);
-            List<WorkflowRun> runs = githubClient.listWorkflowRuns(owner, repo);
+            //Runs unchanged since their state was persisted are skipped before decoding, except
+            //active runs without hot polls: their jobs change without the run changing
+            Map<Long, Long> listed = new HashMap<>();
+            List<WorkflowRun> runs = githubClient.listWorkflowRuns(owner, repo, (runId, fingerprint) -> {
+                listed.put(runId, fingerprint);
+                return fingerprints.runChanged(runId, fingerprint) || hotRuns.isOverflow(runId);
+            });
+            event.runsListed = listed.size();
 
             //Check repo has run actions before or not
-            if (runs.isEmpty()) {
+            if (listed.isEmpty()) {
                 System.out.println("No workflow runs found");
                 isFirstPoll = false;
                 return;
             }
 
-            boolean foundAfterCheckpoint = false;
-            ZonedDateTime maxActionTime = checkpoint;
-
+            //Only work with the run update after checkpoint and active runs without hot polls,
+            //the other runs from before it are never processed, skip them from now on
+            List<WorkflowRun> updatedRuns = new ArrayList<>();
             for (WorkflowRun run : runs) {
-
-                //Only work with the run update after checkpoint
-                ZonedDateTime updatedAt = run.getUpdatedAt();
-                if (updatedAt == null || !updatedAt.isAfter(checkpoint)) {
-                    continue;
-                }
-
-                foundAfterCheckpoint = true;
-
-                //Note the latest time actually processed of this poll
-                if (updatedAt.isAfter(maxActionTime)) {
-                    maxActionTime = updatedAt;
-                }
-
-                //Workflow run started / updated
-                WorkflowRun storedRun = stateStore.getWorkflowRunById(run.getId());
-                if (storedRun == null) {
-                    stateStore.saveWorkflowRun(run);
-                    hasNewEvent = true;
-                    System.out.println(run);
-                } else if (storedRun.hasStatusOrConclusionChanged(run)) {
-                    stateStore.updateWorkflowRun(run);
-                    hasNewEvent = true;
-                    System.out.println(run);
-                }
-
-                //Process Jobs and steps
-                List<Job> jobs = githubClient.listJobs(owner, repo, run.getId());
-                for (Job job : jobs) {
-                    //Job started
-                    if (!stateStore.hasJob(job.getId())) {
-                        System.out.println(formatJobStarted(run, job));
-                        stateStore.saveJob(job, run.getId());
-                    }
-                    //Job completed
-                    if (job.getConclusion() != null && !stateStore.hasJobComplete(job.getId())) {
-                        System.out.println(formatJobCompleted(run, job));
-                        stateStore.markJobComplete(job.getId());
-                    }
-
-                    for (Step step : job.getSteps()) {
-                        //Step started
-                        if (!stateStore.hasStep(job.getId(), step.getName())) {
-                            System.out.println(formatStepStarted(run, job, step));
-                            stateStore.saveStep(step, job.getId());
-                        }
-
-                        //Step completed
-                        if (step.getConclusion() != null &&
-                                !stateStore.hasStepComplete(job.getId(), step.getName())) {
-                            System.out.println(formatStepCompleted(run, job, step));
-                            stateStore.markStepComplete(job.getId(), step.getName());
-                        }
-                    }
+                if (run.getUpdatedAt() != null && run.getUpdatedAt().isAfter(checkpoint)
+                        || hotRuns.isOverflow(run.getId()) && HotRunTracker.isActive(run)) {
+                    updatedRuns.add(run);
+                } else {
+                    fingerprints.putRun(run.getId(), listed.get(run.getId()));
                 }
             }
 
             //The repo has workflow before but the time is before checkpoint
-            if (!foundAfterCheckpoint) {
+            if (updatedRuns.isEmpty()) {
+                hotRuns.update(listed.keySet(), runs, List.of());
                 if (isFirstPoll) {
                     System.out.println("Waiting for new action start...");
                 } else {
@@ -129,6 +238,31 @@ public class PollingService {
                 return;
             }
 
+            //Note the latest time actually processed of this poll
+            ZonedDateTime maxActionTime = checkpoint;
+            for (WorkflowRun run : updatedRuns) {
+                if (run.getUpdatedAt() != null && run.getUpdatedAt().isAfter(maxActionTime)) {
+                    maxActionTime = run.getUpdatedAt();
+                }
+            }
+
+            //Process jobs and steps, waits until every run went through the pipeline
+            PollCycle cycle = new PollCycle(updatedRuns.size());
+            event.runsProcessed = updatedRuns.size();
+            for (WorkflowRun run : updatedRuns) {
+                pipeline.submit(new RunWork(cycle, run, listed.get(run.getId())));
+            }
+            try {
+                cycle.await(CYCLE_TIMEOUT);
+            } finally {
+                if (printPipelineStats) {
+                    System.out.println(pipeline.describe());
+                }
+            }
+            boolean hasNewEvent = cycle.hasNewEvent();
+            event.newEvent = hasNewEvent;
+            hotRuns.update(listed.keySet(), runs, updatedRuns);
+
             //Only update checkpoint after process runs
             if (hasNewEvent) {
                 stateStore.updateLastCheckpoint(maxActionTime);
@@ -139,64 +273,75 @@ public class PollingService {
             }
             isFirstPoll = false;
         } catch (Exception e) {
+            event.failed = true;
             System.err.println("Polling failed: " + e.getMessage());
+        } finally {
+            commitCycle(event, false);
         }
     }
 
-    private String formatJobStarted(WorkflowRun run, Job job) {
-        return String.format(
-                "Time=%s Event=JOB_STARTED Run=%d Job=%d Name=\"%s\" Branch=%s Sha=%s",
-                job.getStartedAt(),
-                run.getId(),
-                job.getId(),
-                job.getName(),
-                run.getHeadBranch(),
-                run.getHeadSha()
-        );
+    /**
+     * Poll only the jobs of queued and in progress runs, without the run listing
+     * The checkpoint is left to the listing poll
+     * @return the number of runs polled
+     */
+    private int pollHotRuns() {
+        List<WorkflowRun> runs = hotRuns.runs();
+        if (runs.isEmpty()) {
+            return 0;
+        }
+        PollCycleEvent event = new PollCycleEvent();
+        event.begin();
+        event.runsProcessed = runs.size();
+        try {
+            PollCycle cycle = new PollCycle(runs.size());
+            List<RunWork> work = new ArrayList<>();
+            for (WorkflowRun run : runs) {
+                RunWork runWork = new RunWork(cycle, run);
+                work.add(runWork);
+                pipeline.submit(runWork);
+            }
+            cycle.await(CYCLE_TIMEOUT);
+
+            for (RunWork runWork : work) {
+                if (runWork.isJobsSettled()) {
+                    hotRuns.jobsSettled(runWork.getRun().getId());
+                }
+            }
+        } catch (Exception e) {
+            event.failed = true;
+            System.err.println("Polling in progress runs failed: " + e.getMessage());
+        } finally {
+            commitCycle(event, true);
+        }
+        return runs.size();
     }
 
-    private String formatJobCompleted(WorkflowRun run, Job job) {
-        return String.format(
-                "Time=%s Event=JOB_COMPLETED Run=%d Job=%d Name=\"%s\" Branch=%s Sha=%s conclusion=%s",
-                job.getCompletedAt(),
-                run.getId(),
-                job.getId(),
-                job.getName(),
-                run.getHeadBranch(),
-                run.getHeadSha(),
-                job.getConclusion()
-        );
+    private void commitCycle(PollCycleEvent event, boolean hot) {
+        if (event.shouldCommit()) {
+            event.repo = owner + "/" + repo;
+            event.hot = hot;
+            event.commit();
+        }
     }
 
-    private String formatStepStarted(WorkflowRun run, Job job, Step step) {
-        return String.format(
-                "Time=%s Event=STEP_STARTED Run=%d Job=%d Job_name=\"%s\" Step=\"%s\" Branch=%s Sha=%s",
-                step.getStartedAt(),
-                run.getId(),
-                job.getId(),
-                job.getName(),
-                step.getName(),
-                run.getHeadBranch(),
-                run.getHeadSha()
-        );
+    private void printEvent(MonitorEvent event) {
+        StartupTimer.markFirstEvent();
+        System.out.println(event);
     }
 
-    private String formatStepCompleted(WorkflowRun run, Job job,  Step step) {
-        return String.format(
-                "Time=%s Event=Step_COMPLETED Run=%d Job=%d Name=\"%s\" Step=\"%s\" Branch=%s Sha=%s Conclusion=%s",
-                step.getCompletedAt(),
-                run.getId(),
-                job.getId(),
-                job.getName(),
-                step.getName(),
-                run.getHeadBranch(),
-                run.getHeadSha(),
-                step.getConclusion()
-        );
+    /**
+     * Stop polling, responses already in the pipeline are still processed
+     */
+    public void stopPolling() {
+        scheduler.shutdownNow();
     }
 
     public void stop() {
-        scheduler.shutdown();
+        stopPolling();
+        if (pipeline != null) {
+            pipeline.stop();
+        }
         System.out.println("PollingService stopped");
     }
 }
@@ -0,0 +1,110 @@
+package org.nhlstenden.moniter.scheduler;
+
+import org.nhlstenden.moniter.event.MonitorEvent;
+import org.nhlstenden.moniter.model.Job;
+import org.nhlstenden.moniter.model.WorkflowRun;
+import org.nhlstenden.moniter.pipeline.PipelineItem;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One workflow run on its way through fetch, decode, diff, persist and emit
+ */
+class RunWork implements PipelineItem {
+    private final PollCycle cycle;
+    private final WorkflowRun run;
+    private final Long runFingerprint;
+    private String jobsBody;
+    private List<Job> jobs;
+    private List<MonitorEvent> events;
+    private boolean jobsSettled;
+    private Map<Long, Long> jobFingerprints = Map.of();
+
+    /**
+     * A run polled for its jobs only, the run itself is unchanged
+     */
+    RunWork(PollCycle cycle, WorkflowRun run) {
+        this(cycle, run, null);
+    }
+
+    /**
+     * A run from the listing whose fingerprint changed
+     */
+    RunWork(PollCycle cycle, WorkflowRun run, Long runFingerprint) {
+        this.cycle = cycle;
+        this.run = run;
+        this.runFingerprint = runFingerprint;
+    }
+
+    PollCycle getCycle() {
+        return cycle;
+    }
+
+    WorkflowRun getRun() {
+        return run;
+    }
+
+    /**
+     * Fingerprint of the run from the listing, null for jobs only polls
+     */
+    Long getRunFingerprint() {
+        return runFingerprint;
+    }
+
+    /**
+     * Fingerprints of the decoded jobs, recorded once their events are persisted
+     */
+    Map<Long, Long> getJobFingerprints() {
+        return jobFingerprints;
+    }
+
+    void setJobFingerprints(Map<Long, Long> jobFingerprints) {
+        this.jobFingerprints = jobFingerprints;
+    }
+
+    String getJobsBody() {
+        return jobsBody;
+    }
+
+    void setJobsBody(String jobsBody) {
+        this.jobsBody = jobsBody;
+    }
+
+    List<Job> getJobs() {
+        return jobs;
+    }
+
+    void setJobs(List<Job> jobs) {
+        this.jobs = jobs;
+    }
+
+    List<MonitorEvent> getEvents() {
+        return events;
+    }
+
+    void setEvents(List<MonitorEvent> events) {
+        this.events = events;
+    }
+
+    /**
+     * True when the run has jobs and every one of them has a conclusion
+     */
+    boolean isJobsSettled() {
+        return jobsSettled;
+    }
+
+    void setJobsSettled(boolean jobsSettled) {
+        this.jobsSettled = jobsSettled;
+    }
+
+    @Override
+    public void complete() {
+        cycle.runDone();
+    }
+
+    @Override
+    public void fail(Exception e) {
+        cycle.runFailed(e);
+    }
+}
@@ -0,0 +1,79 @@
+package org.nhlstenden.moniter.server;
+
+import org.nhlstenden.moniter.event.MonitorEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed size buffer of the latest events shared by all subscribers
+ * Ids start at 1 and increase by one per event. Every subscriber keeps its own
+ * cursor, a subscriber whose cursor fell out of the buffer is lapped
+ * Uses a ReentrantLock instead of synchronized so waiting virtual threads do
+ * not pin their carrier thread
+ */
+class EventRingBuffer {
+    record Entry(long id, MonitorEvent event, String data) {
+    }
+
+    private final Entry[] slots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    private volatile long lastId;
+
+    EventRingBuffer(int capacity) {
+        this.slots = new Entry[capacity];
+    }
+
+    void publish(MonitorEvent event, String data) {
+        lock.lock();
+        try {
+            long id = lastId + 1;
+            slots[(int) (id % slots.length)] = new Entry(id, event, data);
+            lastId = id;
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Oldest id still in the buffer
+     */
+    long getOldestId() {
+        return Math.max(1, lastId - slots.length + 1);
+    }
+
+    /**
+     * The event after the cursor is no longer buffered
+     */
+    boolean isLapped(long cursor) {
+        return cursor + 1 < getOldestId();
+    }
+
+    /**
+     * Wait for the event after the cursor
+     * @return the event, or null when nothing was published within the timeout
+     */
+    Entry next(long cursor, long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (lastId <= cursor) {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = published.awaitNanos(remaining);
+            }
+            Entry entry = slots[(int) ((cursor + 1) % slots.length)];
+            return entry != null && entry.id() == cursor + 1 ? entry : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
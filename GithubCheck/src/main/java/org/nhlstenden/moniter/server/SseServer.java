@@ -0,0 +1,277 @@
+package org.nhlstenden.moniter.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.nhlstenden.moniter.event.EventListener;
+import org.nhlstenden.moniter.event.EventType;
+import org.nhlstenden.moniter.event.MonitorEvent;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Server-Sent Events endpoint broadcasting every monitor event
+ * GET /events?repo=owner/repo&branch=main&type=JOB_COMPLETED,STEP_COMPLETED
+ * Every subscriber runs on its own virtual thread and reads from one shared
+ * ring buffer, so publishing never waits for a client. A subscriber that falls
+ * more than the buffer size behind, or whose write has been blocked for WRITE_TIMEOUT_MILLIS,
+ * is disconnected and can resume with Last-Event-ID
+ * There is no authentication, bind to the loopback address unless the stream may be public
+ */
+public class SseServer implements EventListener {
+    private static final long KEEPALIVE_MILLIS = 15_000;
+    private static final long WRITE_TIMEOUT_MILLIS = 10_000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+    private final EventRingBuffer ring;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    public SseServer(InetAddress address, int port, int bufferSize) throws IOException {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Event buffer must hold at least 1 event " + bufferSize);
+        }
+        this.ring = new EventRingBuffer(bufferSize);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/events", this::handle);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sse-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        server.start();
+        sweeper.scheduleWithFixedDelay(this::disconnectStalled, 1, 1, TimeUnit.SECONDS);
+        InetSocketAddress address = server.getAddress();
+        String host;
+        if (address.getAddress().isAnyLocalAddress()) {
+            host = "<any address>";
+        } else if (address.getAddress() instanceof Inet6Address) {
+            host = "[" + address.getHostString() + "]";
+        } else {
+            host = address.getHostString();
+        }
+        System.out.println("Streaming events on http://" + host + ":" + address.getPort() + "/events");
+    }
+
+    public void stop() {
+        sweeper.shutdownNow();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void onEvent(MonitorEvent event) {
+        ring.publish(event, toJson(event));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        Subscriber subscriber;
+        try {
+            subscriber = new Subscriber(query, startCursor(exchange, query));
+        } catch (IllegalArgumentException e) {
+            byte[] message = e.getMessage().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(400, message.length);
+            exchange.getResponseBody().write(message);
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+
+        subscribers.add(subscriber);
+        try {
+            subscriber.stream(exchange.getResponseBody());
+        } catch (IOException e) {
+            //Client went away, or the sweeper interrupted a blocked write which closes the channel
+        } catch (InterruptedException e) {
+            //Disconnected by the sweeper while waiting for events
+        } finally {
+            //The stream only ends for a client that lapped, stalled or left, which may not be reading.
+            //With the interrupt set the channel is closed instead of blocking on the chunk terminator
+            Thread.currentThread().interrupt();
+            exchange.close();
+            subscribers.remove(subscriber);
+        }
+    }
+
+    /**
+     * Resume after Last-Event-ID when it is still buffered, otherwise from the oldest
+     * buffered event. Without an id only new events are sent
+     */
+    private long startCursor(HttpExchange exchange, Map<String, String> query) {
+        String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        if (lastEventId == null) {
+            lastEventId = query.get("lastEventId");
+        }
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return ring.getLastId();
+        }
+
+        long id;
+        try {
+            id = Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Last-Event-ID must be a number " + lastEventId);
+        }
+        //Ids from before a restart
+        if (id > ring.getLastId()) {
+            return ring.getLastId();
+        }
+        return Math.max(id, ring.getOldestId() - 1);
+    }
+
+    /**
+     * Interrupt the handler of every lapped or stuck subscriber. A write blocked on the socket
+     * channel is aborted by closing the channel, nothing more is written. Closing the exchange
+     * here would flush through the same blocked stream and hang the sweeper
+     */
+    private void disconnectStalled() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            if (ring.isLapped(subscriber.cursor) || subscriber.isWriteOverdue(now)) {
+                subscriber.thread.interrupt();
+            }
+        }
+    }
+
+    private String toJson(MonitorEvent event) {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("type", event.getType().name());
+        node.put("repo", event.getRepo());
+        node.put("runId", event.getRun().getId());
+        node.put("workflow", event.getRun().getName());
+        node.put("branch", event.getRun().getHeadBranch());
+        node.put("sha", event.getRun().getHeadSha());
+        node.put("status", event.getRun().getStatus());
+        node.put("conclusion", event.getRun().getConclusion());
+        if (event.getJob() != null) {
+            node.put("jobId", event.getJob().getId());
+            node.put("job", event.getJob().getName());
+            node.put("status", event.getJob().getStatus());
+            node.put("conclusion", event.getJob().getConclusion());
+        }
+        if (event.getStep() != null) {
+            node.put("step", event.getStep().getName());
+            node.put("status", event.getStep().getStatus());
+            node.put("conclusion", event.getStep().getConclusion());
+        }
+        node.put("detectedAt", event.getDetectedAt().toString());
+        return objectMapper.writeValueAsString(node);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int split = pair.indexOf('=');
+            if (split > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, split), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(split + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private final class Subscriber {
+        private final Thread thread = Thread.currentThread();
+        private final String repo;
+        private final String branch;
+        private final Set<EventType> types;
+        private volatile long cursor;
+        private volatile boolean writing;
+        private volatile long writeStartedAt;
+
+        private Subscriber(Map<String, String> query, long cursor) {
+            this.repo = query.get("repo");
+            this.branch = query.get("branch");
+            String type = query.get("type");
+            this.types = type == null ? null : Arrays.stream(type.split(","))
+                    .map(name -> EventType.valueOf(name.trim().toUpperCase(Locale.ROOT)))
+                    .collect(Collectors.toSet());
+            this.cursor = cursor;
+        }
+
+        private void stream(OutputStream out) throws IOException, InterruptedException {
+            write(out, "retry: 3000\n\n");
+
+            while (!Thread.currentThread().isInterrupted()) {
+                if (ring.isLapped(cursor)) {
+                    return;
+                }
+                EventRingBuffer.Entry entry = ring.next(cursor, KEEPALIVE_MILLIS);
+                if (entry == null) {
+                    if (!ring.isLapped(cursor)) {
+                        //Comment line keeps proxies open and detects closed clients
+                        write(out, ":\n\n");
+                    }
+                    continue;
+                }
+
+                cursor = entry.id();
+                if (matches(entry.event())) {
+                    String message = "id: " + entry.id() + "\n"
+                            + "event: " + entry.event().getType().name() + "\n"
+                            + "data: " + entry.data() + "\n\n";
+                    write(out, message);
+                }
+            }
+        }
+
+        private void write(OutputStream out, String text) throws IOException {
+            writeStartedAt = System.nanoTime();
+            writing = true;
+            try {
+                out.write(text.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } finally {
+                writing = false;
+            }
+        }
+
+        private boolean isWriteOverdue(long now) {
+            return writing && now - writeStartedAt > TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MILLIS);
+        }
+
+        private boolean matches(MonitorEvent event) {
+            return (repo == null || repo.equals(event.getRepo()))
+                    && (branch == null || branch.equals(event.getRun().getHeadBranch()))
+                    && (types == null || types.contains(event.getType()));
+        }
+    }
+}
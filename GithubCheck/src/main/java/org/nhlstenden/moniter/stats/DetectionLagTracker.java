@@ -0,0 +1,140 @@
+package org.nhlstenden.moniter.stats;
+
+import org.nhlstenden.moniter.event.EventListener;
+import org.nhlstenden.moniter.event.MonitorEvent;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detection lag: time from GitHub updating a run, job or step to the monitor emitting its event
+ * Runs are measured from updated_at, jobs and steps from started_at or completed_at.
+ * Each repo keeps one histogram per minute for the last hour, so percentiles over
+ * any window up to an hour cost a merge of at most 60 histograms
+ */
+public class DetectionLagTracker implements EventListener {
+    private static final int WINDOW_MINUTES = 60;
+
+    private final Map<String, LagWindow> windows = new ConcurrentHashMap<>();
+    private volatile Duration budget;
+
+    /**
+     * Warn about every event whose lag exceeds the budget, null turns warnings off
+     */
+    public void setBudget(Duration budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public void onEvent(MonitorEvent event) {
+        ZonedDateTime changedAt = changedAt(event);
+        if (changedAt == null) {
+            return;
+        }
+        Instant now = Instant.now();
+        //GitHub timestamps have whole seconds, a clock slightly behind GitHub gives negative lag
+        long lagSeconds = Math.max(0, Duration.between(changedAt.toInstant(), now).getSeconds());
+
+        Duration budget = this.budget;
+        boolean overBudget = budget != null && lagSeconds > budget.getSeconds();
+        windows.computeIfAbsent(event.getRepo(), repo -> new LagWindow()).record(lagSeconds, overBudget, now);
+        if (overBudget) {
+            System.err.println("Detection lag " + lagSeconds + "s over budget of " + budget.getSeconds()
+                    + "s: " + event.getType() + " run " + event.getRun().getId()
+                    + (event.getJob() != null ? " job " + event.getJob().getId() : "") + " in " + event.getRepo());
+        }
+    }
+
+    /**
+     * When GitHub changed what the event reports, null when GitHub did not say
+     */
+    public static ZonedDateTime changedAt(MonitorEvent event) {
+        return switch (event.getType()) {
+            case RUN_STARTED, RUN_UPDATED -> event.getRun().getUpdatedAt();
+            case JOB_STARTED -> event.getJob().getStartedAt();
+            case JOB_COMPLETED -> event.getJob().getCompletedAt();
+            case STEP_STARTED -> event.getStep().getStartedAt();
+            case STEP_COMPLETED -> event.getStep().getCompletedAt();
+        };
+    }
+
+    /**
+     * One line per repo with lag percentiles over the last 5 and 60 minutes
+     */
+    public List<String> describe() {
+        Instant now = Instant.now();
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, LagWindow> entry : windows.entrySet()) {
+            Merged recent = entry.getValue().merge(5, now);
+            Merged hour = entry.getValue().merge(WINDOW_MINUTES, now);
+            String line = "Detection lag " + entry.getKey()
+                    + ": 5m " + percentiles(recent.histogram)
+                    + " | 60m " + percentiles(hour.histogram);
+            if (budget != null && hour.histogram.getTotal() > 0) {
+                line += String.format(" | over budget %d/%d (%.1f%%)", hour.overBudget, hour.histogram.getTotal(),
+                        hour.overBudget * 100.0 / hour.histogram.getTotal());
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static String percentiles(DurationHistogram histogram) {
+        if (histogram.getTotal() == 0) {
+            return "n=0";
+        }
+        return "p50=" + histogram.percentile(50) + "s p95=" + histogram.percentile(95)
+                + "s p99=" + histogram.percentile(99) + "s n=" + histogram.getTotal();
+    }
+
+    private record Merged(DurationHistogram histogram, long overBudget) {
+    }
+
+    /**
+     * Ring of per minute slots, a slot is reused once its minute has left the window
+     */
+    private static final class LagWindow {
+        private final DurationHistogram[] slots = new DurationHistogram[WINDOW_MINUTES];
+        private final long[] slotMinutes = new long[WINDOW_MINUTES];
+        private final long[] overBudget = new long[WINDOW_MINUTES];
+
+        private LagWindow() {
+            for (int i = 0; i < WINDOW_MINUTES; i++) {
+                slots[i] = new DurationHistogram();
+                slotMinutes[i] = -1;
+            }
+        }
+
+        private synchronized void record(long lagSeconds, boolean over, Instant now) {
+            long minute = now.getEpochSecond() / 60;
+            int slot = (int) (minute % WINDOW_MINUTES);
+            if (slotMinutes[slot] != minute) {
+                slots[slot].clear();
+                overBudget[slot] = 0;
+                slotMinutes[slot] = minute;
+            }
+            slots[slot].record(lagSeconds);
+            if (over) {
+                overBudget[slot]++;
+            }
+        }
+
+        private synchronized Merged merge(int minutes, Instant now) {
+            long minute = now.getEpochSecond() / 60;
+            DurationHistogram merged = new DurationHistogram();
+            long over = 0;
+            for (int i = 0; i < WINDOW_MINUTES; i++) {
+                if (slotMinutes[i] > minute - minutes && slotMinutes[i] <= minute) {
+                    merged.merge(slots[i]);
+                    over += overBudget[i];
+                }
+            }
+            return new Merged(merged, over);
+        }
+    }
+}
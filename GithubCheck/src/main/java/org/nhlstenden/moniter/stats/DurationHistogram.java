@@ -0,0 +1,93 @@
+package org.nhlstenden.moniter.stats;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of durations in seconds
+ * Values below 16 get their own bucket, every power of two above that is split
+ * into 8 sub buckets, so a percentile read from it is off by at most 12.5%
+ */
+public class DurationHistogram {
+    private static final int LINEAR_LIMIT = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - 4) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long total;
+
+    /**
+     * Map a duration to its bucket index
+     */
+    public static int bucketOf(long seconds) {
+        if (seconds < LINEAR_LIMIT) {
+            return (int) Math.max(seconds, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(seconds);
+        int subBucket = (int) (seconds >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Smallest duration that falls into a bucket
+     */
+    public static long lowerBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 4;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Largest duration that falls into a bucket
+     */
+    public static long upperBoundOf(int bucket) {
+        return bucket + 1 < BUCKET_COUNT ? lowerBoundOf(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    public void record(long seconds) {
+        add(bucketOf(seconds), 1);
+    }
+
+    public void add(int bucket, long count) {
+        counts[bucket] += count;
+        total += count;
+    }
+
+    public void merge(DurationHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        total = 0;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Estimate a percentile, returns -1 when nothing has been recorded
+     * @param percentile value between 0 and 100
+     */
+    public long percentile(double percentile) {
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (lowerBoundOf(i) + upperBoundOf(i)) / 2;
+            }
+        }
+        return upperBoundOf(BUCKET_COUNT - 1);
+    }
+}
@@ -0,0 +1,39 @@
+package org.nhlstenden.moniter.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures time from JVM start to the first GitHub request and the first emitted event
+ * Does nothing until enabled, so the hot path only pays for a volatile read
+ */
+public final class StartupTimer {
+    private static volatile boolean enabled;
+    private static long jvmStartMillis;
+    private static final AtomicBoolean firstRequestSeen = new AtomicBoolean();
+    private static final AtomicBoolean firstEventSeen = new AtomicBoolean();
+
+    private StartupTimer() {
+    }
+
+    public static void enable() {
+        jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+        enabled = true;
+    }
+
+    public static void markFirstRequest() {
+        if (enabled && firstRequestSeen.compareAndSet(false, true)) {
+            System.out.println("Startup: time to first request " + sinceJvmStart() + " ms");
+        }
+    }
+
+    public static void markFirstEvent() {
+        if (enabled && firstEventSeen.compareAndSet(false, true)) {
+            System.out.println("Startup: time to first event " + sinceJvmStart() + " ms");
+        }
+    }
+
+    private static long sinceJvmStart() {
+        return System.currentTimeMillis() - jvmStartMillis;
+    }
+}
@@ -1,21 +1,60 @@
 package org.nhlstenden.moniter.storage;
 
+import org.nhlstenden.moniter.jfr.StoreOperationEvent;
+import org.nhlstenden.moniter.model.DurationRollup;
 import org.nhlstenden.moniter.model.Job;
 import org.nhlstenden.moniter.model.Step;
 import org.nhlstenden.moniter.model.WorkflowRun;
 
+import org.nhlstenden.moniter.stats.DurationHistogram;
+
+import java.io.IOException;
 import java.sql.*;
+import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
+/**
+ * SQLite backed state, every public method is synchronized because the
+ * polling thread and background workers share one connection
+ * Every operation emits a StoreOperationEvent for Flight Recorder
+ */
 public class StateStore {
+    /**
+     * Exportable tables and the columns whose changes give a row a new change_seq
+     */
+    private static final Map<String, List<String>> CHANGE_TRACKED = Map.of(
+            "workflow_runs", List.of("status", "conclusion", "completed_at"),
+            "jobs", List.of("status", "conclusion", "completed_at", "completed"),
+            "steps", List.of("status", "conclusion", "completed_at", "completed")
+    );
+
+    private static final int BUSY_TIMEOUT_MILLIS = 5_000;
+
     private final Connection connection;
 
+    /**
+     * A file database runs in WAL mode, so a long export read in another process does not
+     * block the writes of a running monitor, and writers wait for each other instead of failing
+     */
     public StateStore(String dbFile) throws SQLException {
         this.connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile);
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+            //An in memory database has no journal file to share
+            if (!dbFile.equals(":memory:")) {
+                statement.execute("PRAGMA journal_mode = WAL");
+            }
+        }
     }
 
-    public void init() throws SQLException {
+    public synchronized void init() throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("init");
         String workflowTable = """
                 CREATE TABLE IF NOT EXISTS workflow_runs (
                     id INTEGER PRIMARY KEY,
@@ -55,16 +94,100 @@ public class StateStore {
                     UNIQUE(job_id, name)
                 )
                 """;
+        String rollupTable = """
+                CREATE TABLE IF NOT EXISTS duration_rollups (
+                    kind TEXT,
+                    workflow TEXT,
+                    branch TEXT,
+                    job_name TEXT,
+                    step_name TEXT,
+                    total INTEGER DEFAULT 0,
+                    failures INTEGER DEFAULT 0,
+                    PRIMARY KEY (kind, workflow, branch, job_name, step_name)
+                )
+                """;
+        String logBlobTable = """
+                CREATE TABLE IF NOT EXISTS log_blobs (
+                    sha256 TEXT PRIMARY KEY,
+                    path TEXT,
+                    raw_bytes INTEGER,
+                    stored_bytes INTEGER
+                )
+                """;
+        String jobLogTable = """
+                CREATE TABLE IF NOT EXISTS job_logs (
+                    job_id INTEGER PRIMARY KEY,
+                    run_id INTEGER,
+                    sha256 TEXT,
+                    archived_at TEXT
+                )
+                """;
+        String bucketTable = """
+                CREATE TABLE IF NOT EXISTS duration_buckets (
+                    kind TEXT,
+                    workflow TEXT,
+                    branch TEXT,
+                    job_name TEXT,
+                    step_name TEXT,
+                    bucket INTEGER,
+                    count INTEGER DEFAULT 0,
+                    PRIMARY KEY (kind, workflow, branch, job_name, step_name, bucket)
+                )
+                """;
 
         try (Statement statement = this.connection.createStatement()) {
             statement.execute(workflowTable);
             statement.execute(metaTable);
             statement.execute(JobTable);
             statement.execute(StepTable);
+            statement.execute(rollupTable);
+            statement.execute(bucketTable);
+            statement.execute(logBlobTable);
+            statement.execute(jobLogTable);
+        }
+        for (Map.Entry<String, List<String>> table : CHANGE_TRACKED.entrySet()) {
+            trackChanges(table.getKey(), table.getValue());
         }
+        event.finish(0, 0);
     }
 
-    public void saveWorkflowRun(WorkflowRun workflowRun) throws SQLException {
+    /**
+     * Number every insert and every change of a tracked column from one counter in meta,
+     * so an export can pick up where the previous one stopped. Rows from before the
+     * column existed get 0
+     */
+    private void trackChanges(String table, List<String> columns) throws SQLException {
+        boolean hasColumn = false;
+        try (Statement statement = this.connection.createStatement();
+             ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                hasColumn |= rs.getString("name").equals("change_seq");
+            }
+        }
+
+        String nextSeq = """
+                    INSERT INTO meta (key, value) VALUES ('change_seq', 1)
+                    ON CONFLICT(key) DO UPDATE SET value = value + 1;
+                    UPDATE %s SET change_seq = (SELECT value FROM meta WHERE key = 'change_seq') WHERE rowid = NEW.rowid;
+                """.formatted(table);
+        String changed = columns.stream()
+                .map(column -> "OLD." + column + " IS NOT NEW." + column)
+                .collect(Collectors.joining(" OR "));
+        try (Statement statement = this.connection.createStatement()) {
+            if (!hasColumn) {
+                statement.execute("ALTER TABLE " + table + " ADD COLUMN change_seq INTEGER NOT NULL DEFAULT 0");
+            }
+            statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_change_seq ON " + table + " (change_seq)");
+            statement.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_insert_seq AFTER INSERT ON " + table
+                    + " BEGIN\n" + nextSeq + "END");
+            statement.execute("CREATE TRIGGER IF NOT EXISTS " + table + "_update_seq AFTER UPDATE OF "
+                    + String.join(", ", columns) + " ON " + table + " WHEN " + changed
+                    + " BEGIN\n" + nextSeq + "END");
+        }
+    }
+
+    public synchronized void saveWorkflowRun(WorkflowRun workflowRun) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("saveWorkflowRun");
         String sql = """
                 INSERT OR IGNORE INTO workflow_runs
                 (id, status, conclusion, headBranch, headSha, completed_at)
@@ -78,31 +201,38 @@ public class StateStore {
             sta.setString(4, workflowRun.getHeadBranch());
             sta.setString(5, workflowRun.getHeadSha());
             sta.setString(6, workflowRun.getUpdatedAt() != null ? workflowRun.getUpdatedAt().toString() : null);
-            sta.executeUpdate();
+            event.finish(workflowRun.getId(), sta.executeUpdate());
         }
     }
 
-    public boolean hasWorkflowRun(long workflowRunId) throws SQLException {
+    public synchronized boolean hasWorkflowRun(long workflowRunId) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("hasWorkflowRun");
         String sql = "SELECT COUNT(*) FROM workflow_runs WHERE id=?";
         try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
             sta.setLong(1, workflowRunId);
             ResultSet rs = sta.executeQuery();
-            return rs.next() && rs.getLong(1) > 0;
+            boolean found = rs.next() && rs.getLong(1) > 0;
+            event.finish(workflowRunId, found ? 1 : 0);
+            return found;
         }
     }
 
-    public Optional<ZonedDateTime> getLastCheckpoint() throws SQLException {
+    public synchronized Optional<ZonedDateTime> getLastCheckpoint() throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("getLastCheckpoint");
         String sql = "SELECT value FROM meta WHERE key = 'last_checkpoint'";
         try (Statement statement = this.connection.createStatement();
              ResultSet rs = statement.executeQuery(sql)) {
             if (rs.next()) {
+                event.finish(0, 1);
                 return Optional.of(ZonedDateTime.parse(rs.getString("value")));
             }
+            event.finish(0, 0);
             return Optional.empty();
         }
     }
 
-    public void updateLastCheckpoint(ZonedDateTime lastCheckpoint) throws SQLException {
+    public synchronized void updateLastCheckpoint(ZonedDateTime lastCheckpoint) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("updateLastCheckpoint");
         String sql = """
                 INSERT INTO meta (key, value)
                 VALUES ('last_checkpoint', ?)
@@ -111,22 +241,24 @@ public class StateStore {
 
         try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
             sta.setString(1, lastCheckpoint.toString());
-            sta.executeUpdate();
+            event.finish(0, sta.executeUpdate());
         }
     }
 
-    public void updateWorkflowRun(WorkflowRun workflowRun) throws SQLException {
+    public synchronized void updateWorkflowRun(WorkflowRun workflowRun) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("updateWorkflowRun");
         String sql = "UPDATE workflow_runs SET status=?, conclusion=?, completed_at=? WHERE id=?";
         try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
             sta.setString(1, workflowRun.getStatus());
             sta.setString(2, workflowRun.getConclusion());
             sta.setString(3, workflowRun.getUpdatedAt().toString());
             sta.setLong(4, workflowRun.getId());
-            sta.executeUpdate();
+            event.finish(workflowRun.getId(), sta.executeUpdate());
         }
     }
 
-    public WorkflowRun getWorkflowRunById(long id) throws SQLException {
+    public synchronized WorkflowRun getWorkflowRunById(long id) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("getWorkflowRunById");
         String sql = "SELECT id, status, conclusion, completed_at FROM workflow_runs WHERE id=?";
         try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
             sta.setLong(1, id);
@@ -140,21 +272,27 @@ public class StateStore {
                 if (updatedAtString != null) {
                     workflowRun.setUpdatedAt(ZonedDateTime.parse(updatedAtString));
                 }
+                event.finish(id, 1);
                 return workflowRun;
             }
+            event.finish(id, 0);
             return null;
         }
     }
 
-    public boolean hasJob(long jobId) throws SQLException {
+    public synchronized boolean hasJob(long jobId) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("hasJob");
         String sql = "SELECT 1 FROM jobs WHERE id = ?";
         try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
             sta.setLong(1, jobId);
-            return  sta.executeQuery().next();
+            boolean found = sta.executeQuery().next();
+            event.finish(jobId, found ? 1 : 0);
+            return found;
         }
     }
 
-    public void saveJob(Job job, long runId) throws SQLException {
+    public synchronized void saveJob(Job job, long runId) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("saveJob");
         String sql = """
         INSERT OR IGNORE INTO jobs
         (id, run_id, name, status, conclusion, completed_at)
@@ -167,38 +305,65 @@ public class StateStore {
             sta.setString(4, job.getStatus());
             sta.setString(5, job.getConclusion());
             sta.setString(6, job.getCompletedAt() != null ? job.getCompletedAt().toString() : null);
-            sta.executeUpdate();
+            event.finish(job.getId(), sta.executeUpdate());
         }
     }
 
-    public boolean hasJobComplete(long jobId) throws SQLException {
+    public synchronized boolean hasJobComplete(long jobId) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("hasJobComplete");
         String sql = "SELECT completed FROM jobs WHERE id = ?";
         try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
             sta.setLong(1, jobId);
             ResultSet rs = sta.executeQuery();
-            return rs.next() && rs.getInt("completed") == 1;
+            boolean complete = rs.next() && rs.getInt("completed") == 1;
+            event.finish(jobId, complete ? 1 : 0);
+            return complete;
         }
     }
 
 
-    public void markJobComplete(long jobId) throws SQLException {
-        String sql = "UPDATE jobs SET completed = 1 WHERE id = ?";
-        try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
-            sta.setLong(1, jobId);
-            sta.executeUpdate();
-        }
+    /**
+     * Mark a job complete and fold its duration and conclusion into the rollups
+     * The outcome is written with it, a job first stored while in progress has none yet
+     */
+    public synchronized void markJobComplete(WorkflowRun run, Job job) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("markJobComplete");
+        String sql = """
+                UPDATE jobs SET completed = 1, status = ?, conclusion = ?, completed_at = ?
+                WHERE id = ? AND completed = 0
+                """;
+        int rows = inTransaction(() -> {
+            int updated;
+            try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
+                sta.setString(1, job.getStatus());
+                sta.setString(2, job.getConclusion());
+                sta.setString(3, job.getCompletedAt() != null ? job.getCompletedAt().toString() : null);
+                sta.setLong(4, job.getId());
+                updated = sta.executeUpdate();
+            }
+            if (updated > 0) {
+                updateRollup("JOB", run, job.getName(), "",
+                        job.getConclusion(), job.getStartedAt(), job.getCompletedAt());
+            }
+            return updated;
+        });
+        event.finish(job.getId(), rows);
     }
 
-    public boolean hasStep(long jobId, String stepName) throws SQLException {
+    public synchronized boolean hasStep(long jobId, String stepName) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("hasStep");
         String sql = "SELECT 1 FROM steps WHERE job_id = ? AND name = ?";
         try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
             sta.setLong(1, jobId);
             sta.setString(2, stepName);
-            return  sta.executeQuery().next();
+            boolean found = sta.executeQuery().next();
+            event.finish(jobId, found ? 1 : 0);
+            return found;
         }
     }
 
-    public void saveStep(Step step, long jobId) throws SQLException {
+    public synchronized void saveStep(Step step, long jobId) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("saveStep");
         String sql = """
         INSERT OR IGNORE INTO steps
         (job_id, name, status, conclusion, completed_at)
@@ -210,26 +375,325 @@ public class StateStore {
             sta.setString(3, step.getStatus());
             sta.setString(4, step.getConclusion());
             sta.setString(5, step.getCompletedAt() != null ? step.getCompletedAt().toString() : null);
-            sta.executeUpdate();
+            event.finish(jobId, sta.executeUpdate());
         }
     }
 
-    public boolean hasStepComplete(long jobId, String stepName) throws SQLException {
+    public synchronized boolean hasStepComplete(long jobId, String stepName) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("hasStepComplete");
         String sql = "SELECT completed FROM steps WHERE job_id = ? AND name = ?";
         try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
             sta.setLong(1, jobId);
             sta.setString(2, stepName);
             ResultSet rs = sta.executeQuery();
-            return rs.next() && rs.getInt("completed") == 1;
+            boolean complete = rs.next() && rs.getInt("completed") == 1;
+            event.finish(jobId, complete ? 1 : 0);
+            return complete;
         }
     }
 
-    public void markStepComplete(long jobId, String stepName) throws SQLException {
-        String sql = "UPDATE steps SET completed = 1 WHERE job_id = ? AND name = ?";
+    /**
+     * Mark a step complete and fold its duration and conclusion into the rollups
+     * The outcome is written with it, a step first stored while in progress has none yet
+     */
+    public synchronized void markStepComplete(WorkflowRun run, Job job, Step step) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("markStepComplete");
+        String sql = """
+                UPDATE steps SET completed = 1, status = ?, conclusion = ?, completed_at = ?
+                WHERE job_id = ? AND name = ? AND completed = 0
+                """;
+        int rows = inTransaction(() -> {
+            int updated;
+            try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
+                sta.setString(1, step.getStatus());
+                sta.setString(2, step.getConclusion());
+                sta.setString(3, step.getCompletedAt() != null ? step.getCompletedAt().toString() : null);
+                sta.setLong(4, job.getId());
+                sta.setString(5, step.getName());
+                updated = sta.executeUpdate();
+            }
+            if (updated > 0) {
+                updateRollup("STEP", run, job.getName(), step.getName(),
+                        step.getConclusion(), step.getStartedAt(), step.getCompletedAt());
+            }
+            return updated;
+        });
+        event.finish(job.getId(), rows);
+    }
+
+    public synchronized boolean hasJobLog(long jobId) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("hasJobLog");
+        String sql = "SELECT 1 FROM job_logs WHERE job_id = ?";
         try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
             sta.setLong(1, jobId);
-            sta.setString(2, stepName);
+            boolean found = sta.executeQuery().next();
+            event.finish(jobId, found ? 1 : 0);
+            return found;
+        }
+    }
+
+    /**
+     * Path of an archived log with this content hash, if any job stored it before
+     */
+    public synchronized Optional<String> findLogBlob(String sha256) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("findLogBlob");
+        String sql = "SELECT path FROM log_blobs WHERE sha256 = ?";
+        try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
+            sta.setString(1, sha256);
+            ResultSet rs = sta.executeQuery();
+            if (rs.next()) {
+                event.finish(0, 1);
+                return Optional.of(rs.getString("path"));
+            }
+            event.finish(0, 0);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Index an archived job log, the blob row is shared by all jobs with the same content
+     */
+    public synchronized void saveJobLog(long jobId, long runId, String sha256, String path,
+                                        long rawBytes, long storedBytes) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("saveJobLog");
+        String blobSql = """
+                INSERT OR IGNORE INTO log_blobs (sha256, path, raw_bytes, stored_bytes)
+                VALUES (?, ?, ?, ?)
+                """;
+        String jobSql = """
+                INSERT OR REPLACE INTO job_logs (job_id, run_id, sha256, archived_at)
+                VALUES (?, ?, ?, ?)
+                """;
+        int rows = inTransaction(() -> {
+            int updated;
+            try (PreparedStatement sta = this.connection.prepareStatement(blobSql)) {
+                sta.setString(1, sha256);
+                sta.setString(2, path);
+                sta.setLong(3, rawBytes);
+                sta.setLong(4, storedBytes);
+                updated = sta.executeUpdate();
+            }
+            try (PreparedStatement sta = this.connection.prepareStatement(jobSql)) {
+                sta.setLong(1, jobId);
+                sta.setLong(2, runId);
+                sta.setString(3, sha256);
+                sta.setString(4, ZonedDateTime.now().toString());
+                updated += sta.executeUpdate();
+            }
+            return updated;
+        });
+        event.finish(jobId, rows);
+    }
+
+    /**
+     * Latest change_seq handed out, 0 when nothing was written since change tracking started
+     */
+    public synchronized long getChangeSeq() throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("getChangeSeq");
+        String sql = "SELECT value FROM meta WHERE key = 'change_seq'";
+        try (Statement statement = this.connection.createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            long seq = rs.next() ? Long.parseLong(rs.getString("value")) : 0;
+            event.finish(0, 1);
+            return seq;
+        }
+    }
+
+    /**
+     * change_seq up to which a table was exported, -1 before the first export
+     */
+    public synchronized long getExportWatermark(String table) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("getExportWatermark");
+        String sql = "SELECT value FROM meta WHERE key = ?";
+        try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
+            sta.setString(1, "export_watermark:" + checkTracked(table));
+            ResultSet rs = sta.executeQuery();
+            long watermark = rs.next() ? Long.parseLong(rs.getString("value")) : -1;
+            event.finish(0, 1);
+            return watermark;
+        }
+    }
+
+    public synchronized void updateExportWatermark(String table, long changeSeq) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("updateExportWatermark");
+        String sql = """
+                INSERT INTO meta (key, value)
+                VALUES (?, ?)
+                ON CONFLICT(key) DO UPDATE SET value = excluded.value
+                """;
+        try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
+            sta.setString(1, "export_watermark:" + checkTracked(table));
+            sta.setString(2, Long.toString(changeSeq));
+            event.finish(0, sta.executeUpdate());
+        }
+    }
+
+    /**
+     * Stream the rows of a table inserted or changed after afterSeq up to upToSeq, ordered by change_seq
+     * The reader iterates the result set itself, so rows are never collected in memory
+     */
+    public synchronized void readChanges(String table, long afterSeq, long upToSeq, ChangeReader reader)
+            throws SQLException, IOException {
+        StoreOperationEvent event = StoreOperationEvent.start("readChanges");
+        String sql = "SELECT * FROM " + checkTracked(table)
+                + " WHERE change_seq > ? AND change_seq <= ? ORDER BY change_seq";
+        try (PreparedStatement sta = this.connection.prepareStatement(sql)) {
+            sta.setLong(1, afterSeq);
+            sta.setLong(2, upToSeq);
+            try (ResultSet rs = sta.executeQuery()) {
+                reader.read(rs);
+            }
+        }
+        event.finish(0, 0);
+    }
+
+    private static String checkTracked(String table) {
+        if (!CHANGE_TRACKED.containsKey(table)) {
+            throw new IllegalArgumentException("Unknown table " + table);
+        }
+        return table;
+    }
+
+    @FunctionalInterface
+    public interface ChangeReader {
+        void read(ResultSet rs) throws SQLException, IOException;
+    }
+
+    private void updateRollup(String kind, WorkflowRun run, String jobName, String stepName,
+                              String conclusion, ZonedDateTime startedAt, ZonedDateTime completedAt) throws SQLException {
+        String rollupSql = """
+                INSERT INTO duration_rollups (kind, workflow, branch, job_name, step_name, total, failures)
+                VALUES (?, ?, ?, ?, ?, 1, ?)
+                ON CONFLICT(kind, workflow, branch, job_name, step_name)
+                DO UPDATE SET total = total + 1, failures = failures + excluded.failures
+                """;
+        try (PreparedStatement sta = this.connection.prepareStatement(rollupSql)) {
+            bindRollupKey(sta, kind, run, jobName, stepName);
+            sta.setInt(6, isFailure(conclusion) ? 1 : 0);
             sta.executeUpdate();
         }
+
+        //Only completed entities with both timestamps have a duration
+        if (startedAt == null || completedAt == null) {
+            return;
+        }
+        long seconds = Math.max(0, Duration.between(startedAt, completedAt).getSeconds());
+        String bucketSql = """
+                INSERT INTO duration_buckets (kind, workflow, branch, job_name, step_name, bucket, count)
+                VALUES (?, ?, ?, ?, ?, ?, 1)
+                ON CONFLICT(kind, workflow, branch, job_name, step_name, bucket)
+                DO UPDATE SET count = count + 1
+                """;
+        try (PreparedStatement sta = this.connection.prepareStatement(bucketSql)) {
+            bindRollupKey(sta, kind, run, jobName, stepName);
+            sta.setInt(6, DurationHistogram.bucketOf(seconds));
+            sta.executeUpdate();
+        }
+    }
+
+    private void bindRollupKey(PreparedStatement sta, String kind, WorkflowRun run,
+                               String jobName, String stepName) throws SQLException {
+        sta.setString(1, kind);
+        sta.setString(2, run.getName() != null ? run.getName() : "");
+        sta.setString(3, run.getHeadBranch() != null ? run.getHeadBranch() : "");
+        sta.setString(4, jobName != null ? jobName : "");
+        sta.setString(5, stepName != null ? stepName : "");
+    }
+
+    private static boolean isFailure(String conclusion) {
+        return "failure".equals(conclusion) || "timed_out".equals(conclusion);
+    }
+
+    /**
+     * Read duration and failure rollups, merging branches unless perBranch is set
+     * Null filters match everything
+     */
+    public synchronized List<DurationRollup> queryRollups(String kind, String workflow, String branch, String jobName,
+                                             String stepName, boolean perBranch) throws SQLException {
+        StoreOperationEvent event = StoreOperationEvent.start("queryRollups");
+        String where = """
+                WHERE (? IS NULL OR kind = ?)
+                  AND (? IS NULL OR workflow = ?)
+                  AND (? IS NULL OR branch = ?)
+                  AND (? IS NULL OR job_name = ?)
+                  AND (? IS NULL OR step_name = ?)
+                """;
+        String rollupSql = "SELECT kind, workflow, branch, job_name, step_name, total, failures FROM duration_rollups "
+                + where + " ORDER BY kind, workflow, job_name, step_name, branch";
+        String bucketSql = "SELECT kind, workflow, branch, job_name, step_name, bucket, count FROM duration_buckets "
+                + where;
+
+        Map<String, DurationRollup> rollups = new LinkedHashMap<>();
+        try (PreparedStatement sta = this.connection.prepareStatement(rollupSql)) {
+            bindRollupFilter(sta, kind, workflow, branch, jobName, stepName);
+            ResultSet rs = sta.executeQuery();
+            while (rs.next()) {
+                String key = rollupKey(rs, perBranch);
+                DurationRollup rollup = rollups.get(key);
+                if (rollup == null) {
+                    rollup = new DurationRollup();
+                    rollup.setKind(rs.getString("kind"));
+                    rollup.setWorkflow(rs.getString("workflow"));
+                    rollup.setBranch(perBranch ? rs.getString("branch") : null);
+                    rollup.setJobName(rs.getString("job_name"));
+                    rollup.setStepName(rs.getString("step_name"));
+                    rollups.put(key, rollup);
+                }
+                rollup.setTotal(rollup.getTotal() + rs.getLong("total"));
+                rollup.setFailures(rollup.getFailures() + rs.getLong("failures"));
+            }
+        }
+
+        try (PreparedStatement sta = this.connection.prepareStatement(bucketSql)) {
+            bindRollupFilter(sta, kind, workflow, branch, jobName, stepName);
+            ResultSet rs = sta.executeQuery();
+            while (rs.next()) {
+                DurationRollup rollup = rollups.get(rollupKey(rs, perBranch));
+                if (rollup != null) {
+                    rollup.getHistogram().add(rs.getInt("bucket"), rs.getLong("count"));
+                }
+            }
+        }
+        event.finish(0, rollups.size());
+        return new ArrayList<>(rollups.values());
+    }
+
+    private static String rollupKey(ResultSet rs, boolean perBranch) throws SQLException {
+        return String.join("\u0000",
+                rs.getString("kind"),
+                rs.getString("workflow"),
+                rs.getString("job_name"),
+                rs.getString("step_name"),
+                perBranch ? rs.getString("branch") : "");
+    }
+
+    private static void bindRollupFilter(PreparedStatement sta, String... filters) throws SQLException {
+        for (int i = 0; i < filters.length; i++) {
+            sta.setString(i * 2 + 1, filters[i]);
+            sta.setString(i * 2 + 2, filters[i]);
+        }
+    }
+
+    /**
+     * @return the row count of the work
+     */
+    private int inTransaction(SqlWork work) throws SQLException {
+        boolean autoCommit = this.connection.getAutoCommit();
+        this.connection.setAutoCommit(false);
+        try {
+            int rows = work.run();
+            this.connection.commit();
+            return rows;
+        } catch (SQLException | RuntimeException e) {
+            this.connection.rollback();
+            throw e;
+        } finally {
+            this.connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork {
+        int run() throws SQLException;
     }
 }
@@ -0,0 +1,110 @@
+package org.nhlstenden.moniter.storage;
+
+import org.apache.arrow.compression.CommonsCompressionFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nhlstenden.moniter.export.ArrowExporter;
+import org.nhlstenden.moniter.model.Job;
+import org.nhlstenden.moniter.model.Step;
+import org.nhlstenden.moniter.model.WorkflowRun;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateStoreTest {
+    private static final ZonedDateTime STARTED = ZonedDateTime.parse("2026-10-01T10:00:00Z");
+    private static final ZonedDateTime COMPLETED = ZonedDateTime.parse("2026-10-01T10:04:00Z");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void completingJobAndStepExportsTheirOutcome() throws Exception {
+        StateStore store = new StateStore(directory.resolve("state.db").toString());
+        store.init();
+
+        WorkflowRun run = new WorkflowRun();
+        run.setId(7);
+        run.setName("CI");
+        run.setHeadBranch("main");
+        Job job = new Job();
+        job.setId(70);
+        job.setName("build");
+        job.setStatus("in_progress");
+        job.setStartedAt(STARTED);
+        Step step = new Step();
+        step.setName("test");
+        step.setStatus("in_progress");
+        step.setStartedAt(STARTED);
+        store.saveJob(job, run.getId());
+        store.saveStep(step, job.getId());
+        long startedSeq = store.getChangeSeq();
+
+        job.setStatus("completed");
+        job.setConclusion("failure");
+        job.setCompletedAt(COMPLETED);
+        step.setStatus("completed");
+        step.setConclusion("failure");
+        step.setCompletedAt(COMPLETED);
+        store.markJobComplete(run, job);
+        store.markStepComplete(run, job, step);
+        long completedSeq = store.getChangeSeq();
+        assertTrue(completedSeq > startedSeq);
+
+        Path out = directory.resolve("export");
+        try (ArrowExporter exporter = new ArrowExporter(store, out, 16)) {
+            assertEquals(1, exporter.export("jobs", startedSeq, completedSeq));
+            assertEquals(1, exporter.export("steps", startedSeq, completedSeq));
+        }
+        String range = "-" + (startedSeq + 1) + "-" + completedSeq + ".arrow";
+        assertCompleted(out.resolve("jobs" + range));
+        assertCompleted(out.resolve("steps" + range));
+    }
+
+    @Test
+    void completingTwiceDoesNotChangeTheRow() throws Exception {
+        StateStore store = new StateStore(directory.resolve("state.db").toString());
+        store.init();
+
+        WorkflowRun run = new WorkflowRun();
+        run.setId(7);
+        Job job = new Job();
+        job.setId(70);
+        job.setStatus("completed");
+        job.setConclusion("success");
+        job.setCompletedAt(COMPLETED);
+        store.saveJob(job, run.getId());
+        store.markJobComplete(run, job);
+        long seq = store.getChangeSeq();
+
+        job.setConclusion(null);
+        store.markJobComplete(run, job);
+        assertEquals(seq, store.getChangeSeq());
+        assertTrue(store.hasJobComplete(job.getId()));
+    }
+
+    private static void assertCompleted(Path file) throws Exception {
+        try (BufferAllocator allocator = new RootAllocator();
+             FileChannel channel = FileChannel.open(file);
+             ArrowFileReader reader = new ArrowFileReader(channel, allocator, CommonsCompressionFactory.INSTANCE)) {
+            assertTrue(reader.loadNextBatch());
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            assertEquals(1, root.getRowCount());
+            assertEquals("completed", root.getVector("status").getObject(0).toString());
+            assertEquals("failure", root.getVector("conclusion").getObject(0).toString());
+            assertNotNull(root.getVector("completed_at").getObject(0));
+            assertEquals(1L, root.getVector("completed").getObject(0));
+            assertFalse(reader.loadNextBatch());
+        }
+    }
+}